@@ -0,0 +1,150 @@
+package edu.wisc.cs.sdn.sr.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.wisc.cs.sdn.sr.ForwardingCache;
+import edu.wisc.cs.sdn.sr.RouteTable;
+import edu.wisc.cs.sdn.sr.RouteTableEntry;
+
+/**
+ * Measures route table lookups as the table grows, for each way the router
+ * can find the route for a destination. Run with the ant "bench" target;
+ * throughput is reported in lookups per second, and the sample-time mode
+ * reports latency percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RouteLookupBenchmark
+{
+	/** Ways of finding the route for a destination */
+	public enum Implementation
+	{
+		/** Scan every entry, as the original route table did */
+		LINEAR,
+		/** Walk the Patricia trie */
+		TRIE,
+		/** Read the DIR-24-8 forwarding table */
+		DIR_24_8,
+		/** Consult the router's per-destination forwarding cache first,
+		 * falling back to the trie */
+		CACHE
+	}
+
+	/** Number of destinations in each stream; a power of two */
+	private static final int STREAM_SIZE = 1 << 20;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int prefixes;
+
+	@Param({"UNIFORM", "ZIPF"})
+	public SyntheticRoutes.Distribution distribution;
+
+	@Param({"TRIE", "DIR_24_8", "CACHE", "LINEAR"})
+	public Implementation implementation;
+
+	private RouteTable routeTable;
+	private List<RouteTableEntry> entries;
+	private ForwardingCache forwardingCache;
+	private int[] destinations;
+	private int[] prefixDestinations;
+	private int[] prefixMasks;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		// A linear scan of a large table is far too slow to be worth timing
+		if (Implementation.LINEAR == this.implementation
+				&& this.prefixes > 10000)
+		{ throw new IllegalStateException("Linear scan skipped for large tables"); }
+
+		SyntheticRoutes routes = new SyntheticRoutes(this.prefixes, 640);
+		this.routeTable = routes.toRouteTable(
+				Implementation.DIR_24_8 == this.implementation
+				? RouteTable.LookupMode.DIR_24_8 : RouteTable.LookupMode.TRIE);
+		this.entries = this.routeTable.getEntries();
+		this.forwardingCache = new ForwardingCache(ForwardingCache.DEFAULT_SIZE);
+		this.destinations = routes.destinations(STREAM_SIZE,
+				this.distribution);
+		this.prefixDestinations = new int[STREAM_SIZE];
+		this.prefixMasks = new int[STREAM_SIZE];
+		for (int i = 0; i < STREAM_SIZE; i++)
+		{
+			int prefix = i % routes.size();
+			this.prefixDestinations[i] = routes.getDestination(prefix);
+			this.prefixMasks[i] = routes.getMask(prefix);
+		}
+		this.next = 0;
+	}
+
+	/**
+	 * Find the longest prefix match for the next destination, as the router
+	 * does for each forwarded packet.
+	 */
+	@Benchmark
+	public Object lookup()
+	{
+		int ip = this.destinations[this.next++ & (STREAM_SIZE - 1)];
+		switch (this.implementation)
+		{
+		case LINEAR:
+			return this.linearLookup(ip);
+		case CACHE:
+			long generation = this.routeTable.getGeneration();
+			ForwardingCache.Entry decision = this.forwardingCache.lookup(ip,
+					generation);
+			if (null == decision)
+			{
+				RouteTableEntry entry = this.routeTable.lookup(ip);
+				decision = new ForwardingCache.Entry(ip, generation, entry);
+				this.forwardingCache.put(decision);
+			}
+			return decision;
+		default:
+			return this.routeTable.lookup(ip);
+		}
+	}
+
+	/**
+	 * Find the entry with a specific destination and mask, as RIP does for
+	 * each advertised route.
+	 */
+	@Benchmark
+	public Object findEntry()
+	{
+		int index = this.next++ & (STREAM_SIZE - 1);
+		return this.routeTable.findEntry(this.prefixDestinations[index],
+				this.prefixMasks[index]);
+	}
+
+	private RouteTableEntry linearLookup(int ip)
+	{
+		RouteTableEntry best = null;
+		for (RouteTableEntry entry : this.entries)
+		{
+			if ((ip & entry.getMaskAddress()) == entry.getDestinationAddress()
+					&& (null == best || Integer.compareUnsigned(
+							entry.getMaskAddress(), best.getMaskAddress()) > 0))
+			{ best = entry; }
+		}
+		return best;
+	}
+}
@@ -0,0 +1,49 @@
+package edu.wisc.cs.sdn.sr.bench;
+
+import edu.wisc.cs.sdn.sr.ForwardingTable;
+import edu.wisc.cs.sdn.sr.RouteTable;
+
+/**
+ * Reports the memory used per prefix by each lookup implementation as the
+ * route table grows. Heap usage is measured after forcing garbage
+ * collection, so results are approximate; run with a fixed heap size (e.g.,
+ * -Xms2g -Xmx2g) for stable numbers. Run with the ant "bench-memory" target.
+ */
+public class RouteMemoryFootprint
+{
+	private static final int[] SIZES = { 1000, 10000, 100000, 1000000 };
+
+	public static void main(String[] args)
+	{
+		System.out.println("prefixes\tentries\ttrie B/prefix\t"
+				+ "dir24-8 B/prefix\tdir24-8 build ms");
+		for (int size : SIZES)
+		{
+			SyntheticRoutes routes = new SyntheticRoutes(size, 640);
+
+			long before = usedHeap();
+			RouteTable routeTable = routes.toRouteTable(
+					RouteTable.LookupMode.TRIE);
+			long trieBytes = usedHeap() - before;
+			int entries = routeTable.getSnapshot().size();
+
+			routeTable.setLookupMode(RouteTable.LookupMode.DIR_24_8);
+			ForwardingTable fib = routeTable.getForwardingTable();
+
+			System.out.println(String.format("%d\t%d\t%.1f\t%s\t%s", size,
+					entries, (double)trieBytes / entries,
+					(null == fib ? "n/a" : String.format("%.1f",
+							(double)fib.getMemoryFootprint() / entries)),
+					(null == fib ? "n/a" : Long.toString(fib.getBuildTime()))));
+		}
+		System.exit(0);
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+		{ System.gc(); }
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,182 @@
+package edu.wisc.cs.sdn.sr.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.wisc.cs.sdn.sr.AdjacencyTable;
+import edu.wisc.cs.sdn.sr.ArpCache;
+import edu.wisc.cs.sdn.sr.PackedRoutes;
+import edu.wisc.cs.sdn.sr.RouteTable;
+import edu.wisc.cs.sdn.sr.RouteTrie;
+
+/**
+ * Generates synthetic route tables and streams of destination addresses for
+ * benchmarks. Prefix lengths follow the rough shape of a global BGP table:
+ * mostly /24s, then /22s and /23s, with a long tail of shorter and longer
+ * prefixes.
+ */
+public class SyntheticRoutes
+{
+	/** Distributions from which destination addresses can be drawn */
+	public enum Distribution
+	{
+		/** Every prefix is equally likely to be the destination */
+		UNIFORM,
+		/** A few prefixes receive most of the traffic (Zipf, s = 1) */
+		ZIPF
+	}
+
+	/** Cumulative percentage of prefixes with each length, from /8 to /32 */
+	private static final int[] LENGTH_PERCENTILES;
+	static
+	{
+		// Percentage of prefixes with each length, from /8 to /32
+		int[] percentages = {
+			1, 0, 0, 0, 0, 0, 0, 0,   // /8 - /15
+			2, 1, 1, 1, 2, 3, 5, 9,   // /16 - /23
+			58, 1, 1, 1, 1, 1, 1, 1,  // /24 - /31
+			10                        // /32
+		};
+		LENGTH_PERCENTILES = new int[percentages.length];
+		int total = 0;
+		for (int i = 0; i < percentages.length; i++)
+		{
+			total += percentages[i];
+			LENGTH_PERCENTILES[i] = total;
+		}
+	}
+
+	/** Number of distinct gateways the routes point at */
+	private static final int GATEWAY_COUNT = 16;
+
+	/** Number of interfaces the gateways are spread across */
+	private static final int INTERFACE_COUNT = 4;
+
+	private final Random random;
+
+	/** Destination and length of each generated prefix */
+	private final int[] destinations;
+	private final int[] lengths;
+
+	/**
+	 * Generate a set of prefixes.
+	 * @param count number of prefixes
+	 * @param seed seed for the random number generator, so runs are
+	 *        repeatable
+	 */
+	public SyntheticRoutes(int count, long seed)
+	{
+		this.random = new Random(seed);
+		this.destinations = new int[count];
+		this.lengths = new int[count];
+		int total = LENGTH_PERCENTILES[LENGTH_PERCENTILES.length - 1];
+		for (int i = 0; i < count; i++)
+		{
+			int pick = this.random.nextInt(total);
+			int length = 8;
+			while (LENGTH_PERCENTILES[length - 8] <= pick)
+			{ length++; }
+			this.lengths[i] = length;
+			this.destinations[i] = this.random.nextInt()
+					& RouteTrie.prefixMask(length);
+		}
+	}
+
+	/**
+	 * @return number of generated prefixes (including any duplicates)
+	 */
+	public int size()
+	{ return this.destinations.length; }
+
+	/**
+	 * @return the prefixes as routes through a handful of gateways
+	 */
+	public PackedRoutes toPackedRoutes()
+	{
+		PackedRoutes routes = new PackedRoutes(this.destinations.length);
+		int[] interfaces = new int[INTERFACE_COUNT];
+		for (int i = 0; i < INTERFACE_COUNT; i++)
+		{ interfaces[i] = routes.interfaceIndex("eth" + i); }
+		for (int i = 0; i < this.destinations.length; i++)
+		{
+			int gateway = i % GATEWAY_COUNT;
+			routes.add(this.destinations[i], 0x0A000001 + gateway,
+					RouteTrie.prefixMask(this.lengths[i]),
+					interfaces[gateway % INTERFACE_COUNT], 1);
+		}
+		return routes;
+	}
+
+	/**
+	 * Build a route table containing the prefixes.
+	 * @param lookupMode how the table should perform lookups
+	 * @return the route table
+	 */
+	public RouteTable toRouteTable(RouteTable.LookupMode lookupMode)
+	{
+		RouteTable routeTable = new RouteTable(
+				new AdjacencyTable(new ArpCache(null)));
+		RouteTable.Update update = routeTable.beginUpdate();
+		try
+		{ update.replaceAll(this.toPackedRoutes(), false); }
+		finally
+		{ update.commit(); }
+		routeTable.setLookupMode(lookupMode);
+		return routeTable;
+	}
+
+	/**
+	 * Generate destination addresses within the prefixes.
+	 * @param count number of addresses
+	 * @param distribution how often each prefix is chosen
+	 * @return the addresses
+	 */
+	public int[] destinations(int count, Distribution distribution)
+	{
+		double[] cdf = null;
+		if (Distribution.ZIPF == distribution)
+		{
+			cdf = new double[this.destinations.length];
+			double total = 0;
+			for (int i = 0; i < cdf.length; i++)
+			{
+				total += 1.0 / (i + 1);
+				cdf[i] = total;
+			}
+			for (int i = 0; i < cdf.length; i++)
+			{ cdf[i] /= total; }
+		}
+
+		int[] addresses = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			int prefix;
+			if (null == cdf)
+			{ prefix = this.random.nextInt(this.destinations.length); }
+			else
+			{
+				prefix = Arrays.binarySearch(cdf, this.random.nextDouble());
+				if (prefix < 0)
+				{ prefix = Math.min(-prefix - 1, cdf.length - 1); }
+			}
+			int hostMask = ~RouteTrie.prefixMask(this.lengths[prefix]);
+			addresses[i] = this.destinations[prefix]
+					| (this.random.nextInt() & hostMask);
+		}
+		return addresses;
+	}
+
+	/**
+	 * @param index which prefix
+	 * @return destination of the prefix
+	 */
+	public int getDestination(int index)
+	{ return this.destinations[index]; }
+
+	/**
+	 * @param index which prefix
+	 * @return subnet mask of the prefix
+	 */
+	public int getMask(int index)
+	{ return RouteTrie.prefixMask(this.lengths[index]); }
+}
@@ -0,0 +1,168 @@
+package edu.wisc.cs.sdn.sr;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * A next hop: a neighbor IP address reachable out a specific router
+ * interface, along with the neighbor's MAC address once it is known.
+ * Adjacencies are shared by all routes through the same next hop, and are
+ * updated in place when ARP mappings are learned or expire, so a single ARP
+ * reply refreshes every route through the neighbor.
+ */
+public class Adjacency
+{
+	/** Name of the router interface out which the neighbor is reached */
+	private final String interfaceName;
+
+	/** Index of the router interface out which the neighbor is reached */
+	private final int interfaceIndex;
+
+	/** IP address of the neighbor */
+	private final int nextHopAddress;
+
+	/** Router interface out which the neighbor is reached; null until the
+	 * router learns about its interfaces */
+	private volatile Iface iface;
+
+	/** MAC address of the neighbor; null if unresolved */
+	private volatile MACAddress mac;
+
+	/** Destination and source MAC addresses, as they appear at the start of
+	 * an Ethernet header; null if unresolved or the interface is unknown.
+	 * Replaced (never modified) when the MAC address changes. */
+	private volatile byte[] header;
+
+	/** Whether a packet has been forwarded to the neighbor since the ARP 
+	 * cache last checked */
+	private volatile boolean used;
+
+	/**
+	 * Create an unresolved adjacency.
+	 * @param interfaceName name of the router interface out which the
+	 *        neighbor is reached
+	 * @param interfaceIndex index of the router interface out which the
+	 *        neighbor is reached
+	 * @param nextHopAddress IP address of the neighbor
+	 */
+	public Adjacency(String interfaceName, int interfaceIndex, 
+			int nextHopAddress)
+	{
+		this.interfaceName = interfaceName;
+		this.interfaceIndex = interfaceIndex;
+		this.nextHopAddress = nextHopAddress;
+		this.iface = null;
+		this.mac = null;
+		this.header = null;
+		this.used = false;
+	}
+
+	/**
+	 * @return name of the router interface out which the neighbor is reached
+	 */
+	public String getInterfaceName()
+	{ return this.interfaceName; }
+
+	/**
+	 * @return index of the router interface out which the neighbor is reached
+	 */
+	public int getInterfaceIndex()
+	{ return this.interfaceIndex; }
+
+	/**
+	 * @return IP address of the neighbor
+	 */
+	public int getNextHopAddress()
+	{ return this.nextHopAddress; }
+
+	/**
+	 * @return router interface out which the neighbor is reached; null if
+	 *         the interface is not known yet
+	 */
+	public Iface getIface()
+	{ return this.iface; }
+
+	/**
+	 * @return MAC address of the neighbor; null if unresolved
+	 */
+	public MACAddress getMac()
+	{ return this.mac; }
+
+	/**
+	 * @return 12 bytes holding the destination (neighbor) and source
+	 *         (interface) MAC addresses for an Ethernet header; null if the
+	 *         neighbor's MAC address is unresolved or the interface is not 
+	 *         known yet. Must not be modified.
+	 */
+	public byte[] getHeader()
+	{ return this.header; }
+
+	/**
+	 * Record that a packet is being forwarded to the neighbor. Only writes
+	 * the first time after each check, so the forwarding path seldom writes
+	 * to a shared field.
+	 */
+	public void markUsed()
+	{
+		if (!this.used)
+		{ this.used = true; }
+	}
+
+	/**
+	 * Check whether a packet has been forwarded to the neighbor since the 
+	 * last check.
+	 * @return true if the neighbor has been used, otherwise false
+	 */
+	boolean takeUsed()
+	{
+		if (!this.used)
+		{ return false; }
+		this.used = false;
+		return true;
+	}
+
+	/**
+	 * Set the router interface out which the neighbor is reached.
+	 * @param iface the interface
+	 */
+	synchronized void bind(Iface iface)
+	{
+		this.iface = iface;
+		this.rebuildHeader();
+	}
+
+	/**
+	 * Set the neighbor's MAC address.
+	 * @param mac MAC address of the neighbor; null if it is no longer known
+	 */
+	synchronized void resolve(MACAddress mac)
+	{
+		// Refreshing an entry usually confirms the same MAC address
+		if (null == mac ? null == this.mac : mac.equals(this.mac))
+		{ return; }
+		this.mac = mac;
+		this.rebuildHeader();
+	}
+
+	private void rebuildHeader()
+	{
+		Iface iface = this.iface;
+		MACAddress mac = this.mac;
+		if (null == iface || null == mac)
+		{
+			this.header = null;
+			return;
+		}
+		byte[] header = new byte[2 * MACAddress.MAC_ADDRESS_LENGTH];
+		mac.writeTo(header, 0);
+		iface.getMacAddress().writeTo(header, MACAddress.MAC_ADDRESS_LENGTH);
+		this.header = header;
+	}
+
+	public String toString()
+	{
+		return String.format("%s via %s (%s)",
+				Util.intToDottedDecimal(this.nextHopAddress),
+				this.interfaceName,
+				(null == this.mac ? "unresolved" : this.mac.toString()));
+	}
+}
@@ -0,0 +1,200 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * The set of next hops used by a router, shared by the route table (for
+ * routes through a gateway) and the forwarding path (for hosts on directly
+ * connected subnets), and kept up to date by the ARP cache.
+ */
+public class AdjacencyTable
+{
+	/** ARP cache consulted when an adjacency is created */
+	private ArpCache arpCache;
+
+	/** Indices assigned to interface names so far; an interface gets an index
+	 * the first time its name is seen, whether in a route or from the 
+	 * hardware information for the router */
+	private Map<String,Integer> interfaceIndices;
+
+	/** Interfaces known so far, by index; null where the interface is not
+	 * known yet */
+	private volatile Iface[] interfaces;
+
+	/** Adjacencies; maps a neighbor IP address to the adjacencies for that
+	 * address (one per interface, typically only one) */
+	private Map<Integer,List<Adjacency>> adjacencies;
+
+	/**
+	 * Create an empty adjacency table.
+	 * @param arpCache ARP cache consulted when an adjacency is created
+	 */
+	public AdjacencyTable(ArpCache arpCache)
+	{
+		this.arpCache = arpCache;
+		this.interfaceIndices = new ConcurrentHashMap<String,Integer>();
+		this.interfaces = new Iface[0];
+		this.adjacencies = new ConcurrentHashMap<Integer,List<Adjacency>>();
+	}
+
+	/**
+	 * Get the index for an interface name, assigning the next index if the 
+	 * name has not been seen before.
+	 * @param interfaceName name of the interface
+	 * @return index of the interface
+	 */
+	public int interfaceIndex(String interfaceName)
+	{
+		Integer index = this.interfaceIndices.get(interfaceName);
+		if (index != null)
+		{ return index; }
+		synchronized(this)
+		{
+			index = this.interfaceIndices.get(interfaceName);
+			if (null == index)
+			{
+				index = this.interfaceIndices.size();
+				this.interfaceIndices.put(interfaceName, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @param index index of an interface
+	 * @return the interface; null if the interface is not known yet
+	 */
+	public Iface getInterface(int index)
+	{
+		Iface[] interfaces = this.interfaces;
+		return (index >= 0 && index < interfaces.length ? interfaces[index]
+				: null);
+	}
+
+	/**
+	 * Find or create the adjacency for a neighbor.
+	 * @param interfaceName name of the router interface out which the
+	 *        neighbor is reached
+	 * @param nextHopAddress IP address of the neighbor
+	 * @return the adjacency for the neighbor
+	 */
+	public Adjacency get(String interfaceName, int nextHopAddress)
+	{
+		int interfaceIndex = this.interfaceIndex(interfaceName);
+		List<Adjacency> list = this.adjacencies.get(nextHopAddress);
+		if (list != null)
+		{
+			for (Adjacency adjacency : list)
+			{
+				if (adjacency.getInterfaceIndex() == interfaceIndex)
+				{ return adjacency; }
+			}
+		}
+
+		Adjacency adjacency;
+		synchronized(this)
+		{
+			list = this.adjacencies.get(nextHopAddress);
+			if (null == list)
+			{
+				list = new CopyOnWriteArrayList<Adjacency>();
+				this.adjacencies.put(nextHopAddress, list);
+			}
+			for (Adjacency existing : list)
+			{
+				if (existing.getInterfaceIndex() == interfaceIndex)
+				{ return existing; }
+			}
+			adjacency = new Adjacency(interfaceName, interfaceIndex, 
+					nextHopAddress);
+			Iface iface = this.getInterface(interfaceIndex);
+			if (iface != null)
+			{ adjacency.bind(iface); }
+			list.add(adjacency);
+		}
+
+		// Adopt any existing ARP mapping; the adjacency is already visible to
+		// the ARP cache, so a mapping inserted after this is not missed. The
+		// mapping may be replaced or expire between the lookup and adopting
+		// it, and the cache's update of the adjacency may come first, so look
+		// again and adopt the new mapping until it stays the same; an update
+		// after the last lookup also updates the adjacency after it.
+		long mac = this.arpCache.lookupMac(nextHopAddress);
+		while (mac != ArpTable.NO_MAC)
+		{
+			adjacency.resolve(MACAddress.valueOf(mac));
+			long current = this.arpCache.lookupMac(nextHopAddress);
+			if (current == mac)
+			{ break; }
+			if (ArpTable.NO_MAC == current)
+			{ adjacency.resolve(null); }
+			mac = current;
+		}
+		return adjacency;
+	}
+
+	/**
+	 * Make a router interface available by its index, and bind the 
+	 * adjacencies for the interface to it.
+	 * @param iface the interface
+	 */
+	public synchronized void bindInterface(Iface iface)
+	{
+		Iface[] interfaces = this.interfaces;
+		if (iface.getIndex() >= interfaces.length)
+		{ interfaces = Arrays.copyOf(interfaces, iface.getIndex() + 1); }
+		else
+		{ interfaces = interfaces.clone(); }
+		interfaces[iface.getIndex()] = iface;
+		this.interfaces = interfaces;
+		for (List<Adjacency> list : this.adjacencies.values())
+		{
+			for (Adjacency adjacency : list)
+			{
+				if (adjacency.getInterfaceIndex() == iface.getIndex())
+				{ adjacency.bind(iface); }
+			}
+		}
+	}
+
+	/**
+	 * Find an adjacency for a neighbor through which a packet has been 
+	 * forwarded since the last check, and start a new check for all of the
+	 * neighbor's adjacencies.
+	 * @param nextHopAddress IP address of the neighbor
+	 * @return an adjacency that has been used; null if none has
+	 */
+	public Adjacency takeUsed(int nextHopAddress)
+	{
+		List<Adjacency> list = this.adjacencies.get(nextHopAddress);
+		if (null == list)
+		{ return null; }
+		Adjacency used = null;
+		for (Adjacency adjacency : list)
+		{
+			if (adjacency.takeUsed() && null == used)
+			{ used = adjacency; }
+		}
+		return used;
+	}
+
+	/**
+	 * Update the adjacencies for a neighbor with the neighbor's MAC address.
+	 * @param nextHopAddress IP address of the neighbor
+	 * @param mac MAC address of the neighbor; null if it is no longer known
+	 */
+	public void resolve(int nextHopAddress, MACAddress mac)
+	{
+		List<Adjacency> list = this.adjacencies.get(nextHopAddress);
+		if (null == list)
+		{ return; }
+		for (Adjacency adjacency : list)
+		{ adjacency.resolve(mac); }
+	}
+}
@@ -2,36 +2,93 @@ package edu.wisc.cs.sdn.sr;
 
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.util.MACAddress;
 
 /**
- * A cache of MAC address to IP address mappings.
+ * A cache of MAC address to IP address mappings. Retransmitting ARP
+ * requests and expiring entries are driven by a timer wheel, with a timer
+ * per pending request and per entry, rather than by periodically scanning
+ * every request and entry. Packets waiting on a request are queued as 
+ * frames in wire format, within a byte budget for each request and one for 
+ * the whole cache. Entries for neighbors that are in use are refreshed with
+ * unicast ARP requests shortly before they time out, and keep being used 
+ * while the refresh is outstanding, so traffic to busy neighbors never 
+ * waits for ARP.
  * @author Aaron Gember-Jacobson
  */
-public class ArpCache implements Runnable
+public class ArpCache
 {
 	/** Timeout (in milliseconds) for entries in the ARP cache */
 	public static final int TIMEOUT = 15 * 1000;
 	
+	/** Time (in milliseconds) to wait for a reply to an ARP request packet
+	 * before sending another */
+	public static final int RETRY_INTERVAL = 1000;
+	
 	/** Maximum number of attempts (i.e., ARP request packets to send) to
 	 *  determine the MAC address associated with an IP address */
 	public static final int MAX_SEND_COUNT = 5;
 	
+	/** Number of ARP request packets sent, RETRY_INTERVAL apart, to refresh
+	 * an entry that is in use before it times out; the last is sent 
+	 * RETRY_INTERVAL before the entry times out */
+	public static final int REFRESH_COUNT = 3;
+	
+	/** Age (in milliseconds) at which an entry that is in use starts being 
+	 * refreshed */
+	private static final int REFRESH_START = 
+			TIMEOUT - REFRESH_COUNT * RETRY_INTERVAL;
+	
+	/** Default limit on the total length of frames waiting on one request */
+	public static final int DEFAULT_MAX_REQUEST_BYTES = 64 * 1024;
+	
+	/** Default limit on the total length of frames waiting on all requests */
+	public static final int DEFAULT_MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+	
+	/** What to do with a frame that does not fit in a queue's byte budget */
+	public enum DropPolicy
+	{
+		/** Drop the arriving frame */
+		TAIL_DROP,
+		
+		/** Drop the oldest frames waiting on the same request until the 
+		 * arriving frame fits; drop the arriving frame if it still does not */
+		DROP_OLDEST
+	}
+	
 	/** Router to which this cache belongs */
 	private Router router;
 	
-	/** Entries in the cache; maps an IP address to an entry */
-	private Map<Integer,ArpEntry> entries;
+	/** Entries in the cache; maps an IP address to a MAC address */
+	private ArpTable entries;
 	
 	/** Requests for IP address, MAC address pairs that should be added to the 
 	 * cache; maps an IP address to a request */
 	private Map<Integer,ArpRequest> requests;
 	
-	/** Thread for timing out requests and entries in the cache */
-	private Thread timeoutThread;
+	/** Timers for retransmitting requests and timing out entries */
+	private TimerWheel timers;
+	
+	/** Limits on the total length of frames waiting on one request, and on 
+	 * all requests */
+	private volatile int maxRequestBytes;
+	private volatile int maxQueuedBytes;
+	
+	/** What to do with a frame that does not fit in a queue's byte budget */
+	private volatile DropPolicy dropPolicy;
+	
+	/** Total length of frames waiting on all requests */
+	private final AtomicLong queuedBytes;
+	
+	/** Number and total length of frames dropped because they did not fit in 
+	 * a queue's byte budget */
+	private final AtomicLong droppedFrames;
+	private final AtomicLong droppedBytes;
 	
 	/**
 	 * Initializes an empty ARP cache for a router.
@@ -40,78 +97,209 @@ public class ArpCache implements Runnable
 	public ArpCache(Router router)
 	{
 		this.router = router;
-		this.entries = new ConcurrentHashMap<Integer,ArpEntry>();
+		this.entries = new ArpTable();
 		this.requests = new ConcurrentHashMap<Integer,ArpRequest>();
-		timeoutThread = new Thread(this);
-		timeoutThread.start();
+		this.timers = new TimerWheel("ARP timers");
+		this.maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+		this.maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+		this.dropPolicy = DropPolicy.TAIL_DROP;
+		this.queuedBytes = new AtomicLong(0);
+		this.droppedFrames = new AtomicLong(0);
+		this.droppedBytes = new AtomicLong(0);
 	}
 	
 	/**
-	 * Every second: generate ARP request packets, timeout ARP requests, and
-	 * timeout ARP entries.
+	 * Set the byte budgets for frames waiting on requests. Frames already 
+	 * waiting are not dropped if they exceed new, lower budgets.
+	 * @param maxRequestBytes limit on the total length of frames waiting on 
+	 *        one request
+	 * @param maxQueuedBytes limit on the total length of frames waiting on 
+	 *        all requests
 	 */
-	public void run()
+	public void setQueueLimits(int maxRequestBytes, int maxQueuedBytes)
 	{
-		while (true)
-		{
-			// Run every second
-			try 
-			{ Thread.sleep(1000); }
-			catch (InterruptedException e) 
-			{ break; }
-			
-			// Send ARP request packets and timeout ARP requests
-			for (ArpRequest request : this.requests.values())
-			{ this.updateArpRequest(request); }
-			
-			// Timeout ARP entries
-			for (ArpEntry entry : this.entries.values())
-			{
-				if ((System.currentTimeMillis() - entry.getTimeAdded()) 
-						> TIMEOUT)
-				{ this.entries.remove(entry.getIp()); }
-			}
-		}
+		this.maxRequestBytes = maxRequestBytes;
+		this.maxQueuedBytes = maxQueuedBytes;
 	}
 	
 	/**
-	 * Send an ARP request packet for an IP if one second has elapsed and no
-	 * reply has been received. Timeout an ARP request if MAX_SEND_COUNT
-	 * request packets have been sent and no reply has been received. 
+	 * @return limit on the total length of frames waiting on one request
+	 */
+	public int getMaxRequestBytes()
+	{ return this.maxRequestBytes; }
+	
+	/**
+	 * @return limit on the total length of frames waiting on all requests
+	 */
+	public int getMaxQueuedBytes()
+	{ return this.maxQueuedBytes; }
+	
+	/**
+	 * @param dropPolicy what to do with a frame that does not fit in a 
+	 *        queue's byte budget
+	 */
+	public void setDropPolicy(DropPolicy dropPolicy)
+	{ this.dropPolicy = dropPolicy; }
+	
+	/**
+	 * @return what to do with a frame that does not fit in a queue's byte 
+	 *         budget
+	 */
+	public DropPolicy getDropPolicy()
+	{ return this.dropPolicy; }
+	
+	/**
+	 * @return total length of frames waiting on all requests
+	 */
+	public long getQueuedBytes()
+	{ return this.queuedBytes.get(); }
+	
+	/**
+	 * @return number of frames dropped because they did not fit in a queue's
+	 *         byte budget
+	 */
+	public long getDroppedFrames()
+	{ return this.droppedFrames.get(); }
+	
+	/**
+	 * @return total length of frames dropped because they did not fit in a 
+	 *         queue's byte budget
+	 */
+	public long getDroppedBytes()
+	{ return this.droppedBytes.get(); }
+	
+	/**
+	 * Send an ARP request packet for a pending request, and schedule the
+	 * next attempt. Timeout the request if MAX_SEND_COUNT request packets 
+	 * have been sent and no reply has been received. Runs when a request is
+	 * created, and then every RETRY_INTERVAL until a reply arrives.
 	 * @param request a pending ARP request
 	 */
-	private void updateArpRequest(ArpRequest request)
+	private void updateArpRequest(final ArpRequest request)
 	{
-		if ((System.currentTimeMillis() - request.getLastTimeSent()) 
-				< 1000)
+		// The request was answered, or replaced, while the timer was pending
+		if (this.requests.get(request.getIpAddress()) != request)
 		{ return; }
 		
 		if (request.getSentCount() >= MAX_SEND_COUNT)
 		{
+			// Remove the request before closing it, so a closed request is 
+			// never found in the map
+			if (!this.requests.remove(request.getIpAddress(), request))
+			{ return; }
+			this.queuedBytes.addAndGet(-request.close());
+			
 			/*********************************************************/
 		    /* TODO: send ICMP host unreachable to the source        */ 
 		    /* address of all packets waiting on this request        */
 			
-			if ((request.getWaitingPackets() != null) && (request.getWaitingPackets().size() > 0)) {
-				for (Ethernet waiting : request.getWaitingPackets()) {
-					router.sendICMPError(waiting, request.getIface(), (byte) 3, (byte) 1, false);
-				}
+			Iface iface = this.router.getInterface(request.getIfaceIndex());
+			for (byte[] frame : request.getWaitingFrames()) {
+				Ethernet waiting = new Ethernet();
+				waiting.deserialize(frame, 0, frame.length);
+				router.sendICMPError(waiting, iface, (byte) 3, (byte) 1, false);
 			}
 		    /*********************************************************/
-			
-			this.requests.remove(request.getIpAddress());
 		}
 		else
 		{
 			// Send ARP request packet
 			this.sendArpRequest(request);
 			request.incrementSent();
+			request.setRetryTimer(this.timers.schedule(new Runnable()
+			{
+				public void run()
+				{ updateArpRequest(request); }
+			}, RETRY_INTERVAL, TimeUnit.MILLISECONDS));
+		}
+	}
+	
+	/**
+	 * The timer for an entry. An entry has a single timer, created when the
+	 * entry is first inserted, which reschedules itself until the entry
+	 * times out; replacing the entry only changes the time it was added, and
+	 * the timer catches up when it next expires.
+	 */
+	private class EntryTimer implements Runnable
+	{
+		/** IP address of the entry */
+		private final int ip;
+		
+		/** Time added of the version of the entry last considered for a 
+		 * refresh, and the interface out which it is being refreshed (null
+		 * if it is not); only used by the timer's thread */
+		private long refreshTimeAdded;
+		private Iface refreshIface;
+		
+		private EntryTimer(int ip)
+		{
+			this.ip = ip;
+			this.refreshTimeAdded = -1;
+			this.refreshIface = null;
+		}
+		
+		public void run()
+		{ checkEntry(this); }
+	}
+	
+	/**
+	 * Time out an entry, send a unicast ARP request packet to refresh it 
+	 * if it is about to time out and the neighbor has been used since the 
+	 * entry was last checked, and schedule the entry's timer to run again
+	 * unless the entry timed out. The entry stays in use until a reply 
+	 * replaces it, or it times out.
+	 * @param timer the entry's timer
+	 */
+	private void checkEntry(EntryTimer timer)
+	{
+		int ip = timer.ip;
+		while (true)
+		{
+			ArpEntry entry = this.entries.get(ip);
+			if (null == entry)
+			{ return; }
+			long timeAdded = entry.getTimeAdded();
+			long age = System.currentTimeMillis() - timeAdded;
+			long delay;
+			if (age >= TIMEOUT)
+			{
+				if (this.entries.remove(ip, timeAdded))
+				{
+					this.router.getAdjacencyTable().resolve(ip, null);
+					return;
+				}
+				// The entry was replaced since it was read
+				continue;
+			}
+			else if (age < REFRESH_START)
+			{ delay = REFRESH_START - age; }
+			else
+			{
+				if (timer.refreshTimeAdded != timeAdded)
+				{
+					timer.refreshTimeAdded = timeAdded;
+					Adjacency adjacency = 
+							this.router.getAdjacencyTable().takeUsed(ip);
+					timer.refreshIface = (null == adjacency ? null 
+							: adjacency.getIface());
+				}
+				if (timer.refreshIface != null)
+				{
+					this.sendArpRequest(timer.refreshIface, ip, entry.getMac());
+					delay = Math.min(RETRY_INTERVAL, TIMEOUT - age);
+				}
+				else
+				{ delay = TIMEOUT - age; }
+			}
+			this.timers.schedule(timer, delay, TimeUnit.MILLISECONDS);
+			return;
 		}
 	}
 	
 	/**
 	 * Insert an entry in the ARP cache for a specific IP address, MAC address
-	 * pair, and return any pending request.
+	 * pair, update the adjacencies for the IP address, and return any pending
+	 * request.
 	 * @param mac MAC address corresponding to IP address
 	 * @param ip IP address corresponding to MAC address
 	 * @return pending request for the specified IP address; null if none exists
@@ -119,7 +307,21 @@ public class ArpCache implements Runnable
 	public ArpRequest insert(MACAddress mac, int ip)
 	{
 		ArpRequest request = this.requests.remove(ip);
-		this.entries.put(ip, new ArpEntry(mac, ip));
+		if (request != null)
+		{
+			request.cancelRetryTimer();
+			this.queuedBytes.addAndGet(-request.close());
+		}
+		
+		// Replacing an entry keeps its timer, which finds the new time added
+		// when it next expires
+		if (this.entries.put(ip, mac.toLong(), System.currentTimeMillis()))
+		{
+			this.timers.schedule(new EntryTimer(ip), REFRESH_START, 
+					TimeUnit.MILLISECONDS);
+		}
+		
+		this.router.getAdjacencyTable().resolve(ip, mac);
 		return request;
 	}
 	
@@ -131,23 +333,165 @@ public class ArpCache implements Runnable
 	public ArpEntry lookup(int ip)
 	{ return this.entries.get(ip); }
 	
+	/**
+	 * Find the MAC address for an IP address in the cache, without 
+	 * allocating.
+	 * @param ip IP address whose MAC address is desired
+	 * @return the MAC address, as a long; ArpTable.NO_MAC if none exists
+	 */
+	public long lookupMac(int ip)
+	{ return this.entries.getMac(ip); }
+	
 	/**
 	 * Adds an ARP request to the ARP request queue. Adds the packet to the 
-	 * list of packets waiting for this request to be resolved.
+	 * list of packets waiting for this request to be resolved, as a frame in
+	 * wire format, unless it does not fit in the byte budgets.
 	 * @param etherPacket packet waiting for the MAC for it's next hop IP
-	 * @param outIface interface out which the packet will be sent
+	 * @param outIfaceIndex index of the interface out which the packet will 
+	 *        be sent
 	 * @param nextHopIP the IP address whose MAC should be determined
 	 */
-	public void waitForArp(Ethernet etherPacket, Iface outIface, int nextHopIp)
+	public void waitForArp(Ethernet etherPacket, int outIfaceIndex, 
+			int nextHopIp)
 	{
-		ArpRequest request = this.requests.get(nextHopIp);
-		if (null == request)
+		byte[] frame = etherPacket.serialize();
+		while (true)
 		{
-			request = new ArpRequest(nextHopIp, outIface);
-			this.requests.put(nextHopIp, request);
+			ArpRequest request = this.requests.get(nextHopIp);
+			boolean created = false;
+			if (null == request)
+			{
+				request = new ArpRequest(nextHopIp, outIfaceIndex);
+				ArpRequest existing = this.requests.putIfAbsent(nextHopIp, 
+						request);
+				if (existing != null)
+				{ request = existing; }
+				else
+				{ created = true; }
+			}
+			
+			// A request that is closed has already been removed from the 
+			// map, so look again
+			if (this.enqueueFrame(request, frame))
+			{
+				if (created)
+				{ this.updateArpRequest(request); }
+				return;
+			}
 		}
-		request.enqueuePacket(etherPacket);
-		this.updateArpRequest(request);
+	}
+	
+	/**
+	 * Start resolving the MAC address for an IP address before any packet 
+	 * needs it, unless it is already known or being resolved.
+	 * @param nextHopIp the IP address whose MAC should be determined
+	 * @param outIfaceIndex index of the interface out which the neighbor is 
+	 *        reached
+	 */
+	public void prefetch(int nextHopIp, int outIfaceIndex)
+	{
+		if (this.entries.getMac(nextHopIp) != ArpTable.NO_MAC
+				|| this.requests.containsKey(nextHopIp))
+		{ return; }
+		ArpRequest request = new ArpRequest(nextHopIp, outIfaceIndex);
+		if (null == this.requests.putIfAbsent(nextHopIp, request))
+		{ this.updateArpRequest(request); }
+	}
+	
+	/**
+	 * Add a frame to the frames waiting on a request, applying the drop 
+	 * policy if it does not fit in the request's or the cache's byte budget.
+	 * @param request pending request
+	 * @param frame frame waiting on the request
+	 * @return false if the request is closed, otherwise true (whether or not
+	 *         the frame was dropped)
+	 */
+	private boolean enqueueFrame(ArpRequest request, byte[] frame)
+	{
+		int length = frame.length;
+		synchronized(request)
+		{
+			if (request.isClosed())
+			{ return false; }
+			
+			// A frame that could never fit is dropped without evicting 
+			// anything for it
+			int maxRequestBytes = this.maxRequestBytes;
+			if (length > maxRequestBytes || length > this.maxQueuedBytes)
+			{
+				this.countDrop(length);
+				return true;
+			}
+			boolean dropOldest = (DropPolicy.DROP_OLDEST == this.dropPolicy);
+			
+			// Make room within the request's budget
+			while (request.getQueuedBytes() + length > maxRequestBytes)
+			{
+				if (!dropOldest)
+				{
+					this.countDrop(length);
+					return true;
+				}
+				this.evictOldestFrame(request);
+			}
+			
+			// Make room within the cache's budget, but only evict this 
+			// request's frames if that frees enough room; otherwise the room 
+			// is taken by other requests
+			while (!this.reserveQueuedBytes(length))
+			{
+				if (!dropOldest || 0 == request.getQueuedBytes()
+						|| this.queuedBytes.get() - request.getQueuedBytes() 
+							+ length > this.maxQueuedBytes)
+				{
+					this.countDrop(length);
+					return true;
+				}
+				this.evictOldestFrame(request);
+			}
+			request.enqueueFrame(frame);
+			return true;
+		}
+	}
+	
+	/**
+	 * Drop the oldest frame waiting on a request. The caller must hold the 
+	 * request's lock, and the request must have a frame waiting.
+	 * @param request pending request
+	 */
+	private void evictOldestFrame(ArpRequest request)
+	{
+		byte[] oldest = request.dequeueOldestFrame();
+		this.queuedBytes.addAndGet(-oldest.length);
+		this.countDrop(oldest.length);
+	}
+	
+	/**
+	 * Account for a frame in the total length of frames waiting on all 
+	 * requests, if it fits in the cache's byte budget.
+	 * @param length length of the frame
+	 * @return true if the frame fits, otherwise false
+	 */
+	private boolean reserveQueuedBytes(int length)
+	{
+		long current;
+		do
+		{
+			current = this.queuedBytes.get();
+			if (current + length > this.maxQueuedBytes)
+			{ return false; }
+		} while (!this.queuedBytes.compareAndSet(current, current + length));
+		return true;
+	}
+	
+	/**
+	 * Count a frame dropped because it did not fit in a byte budget.
+	 * @param length length of the frame
+	 */
+	private void countDrop(int length)
+	{
+		this.droppedFrames.incrementAndGet();
+		this.droppedBytes.addAndGet(length);
 	}
 	
 	/**
@@ -155,14 +499,24 @@ public class ArpCache implements Runnable
 	 * @param request pending request for obtaining the MAC address for an IP
 	 */
 	private void sendArpRequest(ArpRequest request)
+	{
+		this.sendArpRequest(this.router.getInterface(request.getIfaceIndex()),
+				request.getIpAddress(), MACAddress.BROADCAST);
+	}
+	
+	/**
+	 * Send an ARP request packet for an IP address.
+	 * @param iface interface out which to send the request
+	 * @param ip IP address whose MAC address is requested
+	 * @param destinationMac MAC address to send the request to; broadcast
+	 *        unless an existing mapping is being refreshed
+	 */
+	private void sendArpRequest(Iface iface, int ip, MACAddress destinationMac)
 	{
 		// Populate Ethernet header
 		Ethernet etherPkt = new Ethernet();
-		byte[] broadcastMac = {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF,
-				(byte)0xFF, (byte)0xFF};
-		etherPkt.setDestinationMACAddress(broadcastMac);
-		etherPkt.setSourceMACAddress(
-				request.getIface().getMacAddress().toBytes());
+		etherPkt.setDestinationMACAddress(destinationMac);
+		etherPkt.setSourceMACAddress(iface.getMacAddress());
 		etherPkt.setEtherType(Ethernet.TYPE_ARP);
 		
 		// Populate ARP header
@@ -172,12 +526,11 @@ public class ArpCache implements Runnable
 		arpPkt.setHardwareAddressLength((byte)Ethernet.DATALAYER_ADDRESS_LENGTH);
 		arpPkt.setProtocolAddressLength((byte)4);
 		arpPkt.setOpCode(ARP.OP_REQUEST);
-		arpPkt.setSenderHardwareAddress(
-				request.getIface().getMacAddress().toBytes());
-		arpPkt.setSenderProtocolAddress(request.getIface().getIpAddress());
+		arpPkt.setSenderHardwareAddress(iface.getMacAddress());
+		arpPkt.setSenderProtocolAddress(iface.getIpAddress());
         arpPkt.setTargetHardwareAddress(
                 new byte[Ethernet.DATALAYER_ADDRESS_LENGTH]);
-		arpPkt.setTargetProtocolAddress(request.getIpAddress());
+		arpPkt.setTargetProtocolAddress(ip);
 		
 		// Stack headers
 		etherPkt.setPayload(arpPkt);
@@ -186,7 +539,7 @@ public class ArpCache implements Runnable
 		System.out.println("Send ARP request");
 		System.out.println(etherPkt.toString());
 		System.out.flush();
-		this.router.sendPacket(etherPkt, request.getIface());
+		this.router.sendPacket(etherPkt, iface);
 	}
 	
 	/**
@@ -198,8 +551,8 @@ public class ArpCache implements Runnable
 	{
 		// Populate Ethernet header
 		Ethernet etherReply = new Ethernet();
-		etherReply.setDestinationMACAddress(etherPacket.getSourceMACAddress());
-		etherReply.setSourceMACAddress(iface.getMacAddress().toBytes());
+		etherReply.setDestinationMACAddress(etherPacket.getSourceMACLong());
+		etherReply.setSourceMACAddress(iface.getMacAddress());
 		etherReply.setEtherType(Ethernet.TYPE_ARP);
 		
 		// Populate ARP header
@@ -210,7 +563,7 @@ public class ArpCache implements Runnable
 		arpReply.setHardwareAddressLength(arpPacket.getHardwareAddressLength());
 		arpReply.setProtocolAddressLength(arpPacket.getProtocolAddressLength());
 		arpReply.setOpCode(ARP.OP_REPLY);
-		arpReply.setSenderHardwareAddress(iface.getMacAddress().toBytes());
+		arpReply.setSenderHardwareAddress(iface.getMacAddress());
 		arpReply.setSenderProtocolAddress(iface.getIpAddress());
 		arpReply.setTargetHardwareAddress(arpPacket.getSenderHardwareAddress());
 		arpReply.setTargetProtocolAddress(arpPacket.getSenderProtocolAddress());
@@ -29,6 +29,20 @@ public class ArpEntry
 		this.timeAdded = System.currentTimeMillis();
 	}
 	
+	/**
+	 * Create an ARP table entry that maps an IP address to a MAC address.
+	 * @param mac MAC address corresponding to IP address, as a long
+	 * @param ip IP address corresponding to MAC address
+	 * @param timeAdded time (in milliseconds since the epoch) the mapping was
+	 *        created
+	 */
+	public ArpEntry(long mac, int ip, long timeAdded)
+	{
+		this.mac = MACAddress.valueOf(mac);
+		this.ip = ip;
+		this.timeAdded = timeAdded;
+	}
+	
 	/**
 	 * @return MAC address corresponding to IP address
 	 */
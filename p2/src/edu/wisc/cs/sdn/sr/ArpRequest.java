@@ -1,9 +1,7 @@
 package edu.wisc.cs.sdn.sr;
 
-import java.util.LinkedList;
-import java.util.List;
-
-import net.floodlightcontroller.packet.Ethernet;
+import java.util.ArrayDeque;
+import java.util.Collection;
 
 /**
  * A pending request for obtaining the MAC address for an IP using ARP. 
@@ -14,30 +12,40 @@ public class ArpRequest
 	/** IP address whose corresponding MAC address is being requested */
 	private int ipAddress;
 	
-	/** Interface over which the resolution should occur */
-	private Iface iface;
-	
-	/** Last time an ARP request packet was sent for this request */ 
-	private long lastTimeSent; 
+	/** Index of the interface over which the resolution should occur */
+	private int ifaceIndex;
 	
 	/** Number of times an ARP request packet has been sent for this request */
 	private int sentCount; 
 	
-	/** List of packets waiting on this request to be resolved */
-	private List<Ethernet> waitingPackets;
+	/** Frames (in wire format) waiting on this request to be resolved, 
+	 * oldest first; guarded by this request's lock */
+	private ArrayDeque<byte[]> waitingFrames;
+	
+	/** Total length of the waiting frames */
+	private int queuedBytes;
+	
+	/** Whether the request has been resolved or timed out, after which no 
+	 * more frames can be added */
+	private boolean closed;
+	
+	/** Timer for the next ARP request packet; null if none is scheduled */
+	private volatile TimerWheel.Timeout retryTimer;
 	
 	/**
 	 * Create a request for a pending resolution of an IP address's MAC address.
 	 * @param ip IP address whose corresponding MAC address is being requested
-	 * @param iface interface over which the resolution should occur
+	 * @param ifaceIndex index of the interface over which the resolution 
+	 *        should occur
 	 */
-	public ArpRequest(int ip, Iface iface)
+	public ArpRequest(int ip, int ifaceIndex)
 	{
 		this.ipAddress = ip;
-		this.iface = iface;
-		this.lastTimeSent = 0;
+		this.ifaceIndex = ifaceIndex;
 		this.sentCount = 0;
-		this.waitingPackets = new LinkedList<Ethernet>();
+		this.waitingFrames = new ArrayDeque<byte[]>();
+		this.queuedBytes = 0;
+		this.closed = false;
 	}
 	
 	/**
@@ -47,17 +55,10 @@ public class ArpRequest
 	{ return this.ipAddress; }
 	
 	/**
-	 * @return interface over which the resolution should occur
-	 */
-	public Iface getIface()
-	{ return this.iface; }
-	
-	/**
-	 * @return the last time (in milliseconds since the epoch) an ARP request 
-	 * packet was sent for this request
+	 * @return index of the interface over which the resolution should occur
 	 */
-	public long getLastTimeSent()
-	{ return this.lastTimeSent; }
+	public int getIfaceIndex()
+	{ return this.ifaceIndex; }
 	
 	/**
 	 * @return number of times an ARP request packet has been sent
@@ -66,27 +67,85 @@ public class ArpRequest
 	{ return this.sentCount; }
 	
 	/**
-	 * @return list of packets waiting on this request to be resolved
+	 * @return frames waiting on this request to be resolved, oldest first; 
+	 *         must only be used once the request is closed
 	 */
-	public List<Ethernet> getWaitingPackets()
-	{ return this.waitingPackets; }
+	public Collection<byte[]> getWaitingFrames()
+	{ return this.waitingFrames; }
 	
 	/**
-	 * Update the last time an ARP request packet was sent to the current time
-	 * (in milliseconds since the epoch) and increment the request packet count.
+	 * @return total length of the frames waiting on this request
+	 */
+	public synchronized int getQueuedBytes()
+	{ return this.queuedBytes; }
+	
+	/**
+	 * Increment the request packet count.
 	 */
 	public void incrementSent()
+	{ this.sentCount++; }
+	
+	/**
+	 * @param retryTimer timer for the next ARP request packet
+	 */
+	void setRetryTimer(TimerWheel.Timeout retryTimer)
+	{ this.retryTimer = retryTimer; }
+	
+	/**
+	 * Cancel the timer for the next ARP request packet, if there is one.
+	 */
+	void cancelRetryTimer()
+	{
+		TimerWheel.Timeout retryTimer = this.retryTimer;
+		if (retryTimer != null)
+		{ retryTimer.cancel(); }
+	}
+	
+	/**
+	 * Add a frame to the end of the queue of frames waiting on this request 
+	 * to be resolved. All fields of the frame should be correctly filled in 
+	 * except for the MAC addresses in the Ethernet header. The caller must 
+	 * hold this request's lock, and the request must not be closed.
+	 * @param frame frame waiting on this request to be resolved
+	 */
+	void enqueueFrame(byte[] frame)
+	{
+		this.waitingFrames.addLast(frame);
+		this.queuedBytes += frame.length;
+	}
+	
+	/**
+	 * Remove the oldest frame waiting on this request. The caller must hold 
+	 * this request's lock.
+	 * @return the oldest frame; null if no frames are waiting
+	 */
+	byte[] dequeueOldestFrame()
 	{
-		this.lastTimeSent = System.currentTimeMillis();
-		this.sentCount++;
+		byte[] frame = this.waitingFrames.pollFirst();
+		if (frame != null)
+		{ this.queuedBytes -= frame.length; }
+		return frame;
 	}
 	
 	/**
-	 * Add a packet to the list of packets waiting on this request to be
-	 * resolved. All fields of the packet should be correctly filled in except 
-	 * for the destination MAC address in the Ethernet header.
-	 * @param etherPacket packet waiting on this request to be resolved
+	 * @return true if the request has been resolved or timed out, and no 
+	 *         more frames can be added; the caller must hold this request's 
+	 *         lock
+	 */
+	boolean isClosed()
+	{ return this.closed; }
+	
+	/**
+	 * Stop accepting frames, once the request is resolved or timed out. 
+	 * The frames already waiting stay available from getWaitingFrames().
+	 * @return total length of the frames waiting on this request; 0 if the 
+	 *         request was already closed
 	 */
-	public void enqueuePacket(Ethernet etherPacket)
-	{ this.waitingPackets.add(etherPacket); }
+	synchronized int close()
+	{
+		if (this.closed)
+		{ return 0; }
+		this.closed = true;
+		return this.queuedBytes;
+	}
 }
@@ -0,0 +1,336 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A concurrent hash table that maps IP addresses to MAC addresses, keyed by
+ * primitive ints. Keys, MAC addresses (as 48-bit longs), and the times the
+ * mappings were added are kept in parallel arrays, and collisions are
+ * resolved by linear probing, so a lookup neither boxes its key nor follows
+ * pointers.
+ *
+ * Lookups take no locks. Updates lock one of several stripes, chosen by the
+ * key, so updates for different addresses seldom contend. A slot is claimed
+ * for an address the first time it is added and keeps it until the table is
+ * rebuilt; removing a mapping only clears the slot's MAC address. Each slot
+ * has a sequence number that is odd while the slot is being updated, so a
+ * lookup can read a MAC address and time that belong together. The table
+ * is rebuilt, with all stripes locked, when too many slots are claimed.
+ */
+public class ArpTable
+{
+	/** Value returned for the MAC address of an IP address that is not in
+	 * the table */
+	public static final long NO_MAC = -1;
+
+	/** Default initial number of slots */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/** Number of locks for updates; a power of two */
+	private static final int STRIPES = 16;
+
+	/** Smallest number of slots; large enough that concurrent updates in
+	 * every stripe cannot fill a table that is just under the load limit */
+	private static final int MIN_CAPACITY = 4 * STRIPES;
+
+	private static final VarHandle INTS =
+			MethodHandles.arrayElementVarHandle(int[].class);
+	private static final VarHandle LONGS =
+			MethodHandles.arrayElementVarHandle(long[].class);
+
+	/**
+	 * The arrays for one size of the table. Address 0.0.0.0 marks an
+	 * unclaimed slot.
+	 */
+	private static class Slots
+	{
+		final int[] keys;
+		final long[] macs;
+		final long[] times;
+		final int[] sequences;
+		final int mask;
+
+		/** Number of slots that have been claimed */
+		final AtomicInteger claimed;
+
+		/** Number of claimed slots beyond which the table is rebuilt */
+		final int limit;
+
+		Slots(int capacity)
+		{
+			this.keys = new int[capacity];
+			this.macs = new long[capacity];
+			Arrays.fill(this.macs, NO_MAC);
+			this.times = new long[capacity];
+			this.sequences = new int[capacity];
+			this.mask = capacity - 1;
+			this.claimed = new AtomicInteger(0);
+			this.limit = capacity / 4 * 3;
+		}
+
+		/**
+		 * @return index of the slot claimed for an address; -1 if none
+		 */
+		int find(int ip)
+		{
+			int i = hash(ip) & this.mask;
+			for (int probes = 0; probes <= this.mask; probes++)
+			{
+				int key = (int)INTS.getAcquire(this.keys, i);
+				if (key == ip)
+				{ return i; }
+				if (0 == key)
+				{ return -1; }
+				i = (i + 1) & this.mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Find or claim the slot for an address; the caller must hold the
+		 * address's stripe lock.
+		 * @return index of the slot; -1 if the table is full
+		 */
+		int claim(int ip)
+		{
+			int i = hash(ip) & this.mask;
+			for (int probes = 0; probes <= this.mask; probes++)
+			{
+				int key = (int)INTS.getAcquire(this.keys, i);
+				if (0 == key)
+				{
+					// Another stripe may claim the same slot first
+					if (INTS.compareAndSet(this.keys, i, 0, ip))
+					{
+						this.claimed.incrementAndGet();
+						return i;
+					}
+					key = (int)INTS.getAcquire(this.keys, i);
+				}
+				if (key == ip)
+				{ return i; }
+				i = (i + 1) & this.mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Set a slot's MAC address and time; the caller must hold the lock
+		 * of the slot's address's stripe.
+		 */
+		void write(int i, long mac, long time)
+		{
+			int sequence = this.sequences[i];
+			INTS.setOpaque(this.sequences, i, sequence + 1);
+			VarHandle.releaseFence();
+			LONGS.setOpaque(this.times, i, time);
+			LONGS.setOpaque(this.macs, i, mac);
+			INTS.setRelease(this.sequences, i, sequence + 2);
+		}
+	}
+
+	/** Current arrays; replaced when the table is rebuilt */
+	private volatile Slots slots;
+
+	/** Locks for updates; all are held while the table is rebuilt */
+	private final ReentrantLock[] stripes;
+
+	/** Number of addresses with a MAC address */
+	private final AtomicInteger size;
+
+	/**
+	 * Create an empty table with the default initial number of slots.
+	 */
+	public ArpTable()
+	{ this(DEFAULT_CAPACITY); }
+
+	/**
+	 * Create an empty table.
+	 * @param capacity initial number of slots; rounded up to a power of two
+	 */
+	public ArpTable(int capacity)
+	{
+		this.slots = new Slots(tableSize(capacity));
+		this.stripes = new ReentrantLock[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+		{ this.stripes[i] = new ReentrantLock(); }
+		this.size = new AtomicInteger(0);
+	}
+
+	private static int tableSize(int capacity)
+	{
+		capacity = Math.max(capacity, MIN_CAPACITY);
+		return Integer.highestOneBit(capacity * 2 - 1);
+	}
+
+	private static int hash(int ip)
+	{
+		int h = ip * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private ReentrantLock stripe(int ip)
+	{ return this.stripes[(ip * 0x85EBCA6B) >>> 28]; }
+
+	/**
+	 * @return number of IP addresses with a MAC address
+	 */
+	public int size()
+	{ return this.size.get(); }
+
+	/**
+	 * Find the MAC address for an IP address, without locking or allocating.
+	 * @param ip IP address
+	 * @return the MAC address, as a long; NO_MAC if there is none
+	 */
+	public long getMac(int ip)
+	{
+		Slots slots = this.slots;
+		int i = slots.find(ip);
+		if (i < 0)
+		{ return NO_MAC; }
+		return (long)LONGS.getAcquire(slots.macs, i);
+	}
+
+	/**
+	 * Find the mapping for an IP address.
+	 * @param ip IP address
+	 * @return the mapping; null if there is none
+	 */
+	public ArpEntry get(int ip)
+	{
+		Slots slots = this.slots;
+		int i = slots.find(ip);
+		if (i < 0)
+		{ return null; }
+
+		long mac;
+		long time;
+		while (true)
+		{
+			int sequence = (int)INTS.getAcquire(slots.sequences, i);
+			mac = (long)LONGS.getOpaque(slots.macs, i);
+			time = (long)LONGS.getOpaque(slots.times, i);
+			VarHandle.acquireFence();
+			if (0 == (sequence & 1)
+					&& sequence == (int)INTS.getOpaque(slots.sequences, i))
+			{ break; }
+			Thread.onSpinWait();
+		}
+		if (NO_MAC == mac)
+		{ return null; }
+		return new ArpEntry(mac, ip, time);
+	}
+
+	/**
+	 * Add or replace the mapping for an IP address.
+	 * @param ip IP address; must not be 0.0.0.0
+	 * @param mac MAC address, as a long
+	 * @param time time (in milliseconds since the epoch) the mapping was added
+	 * @return true if the IP address had no mapping, false if one was 
+	 *         replaced
+	 */
+	public boolean put(int ip, long mac, long time)
+	{
+		if (0 == ip)
+		{ throw new IllegalArgumentException("Address 0.0.0.0 is reserved"); }
+
+		while (true)
+		{
+			Slots slots = this.slots;
+			if (slots.claimed.get() < slots.limit)
+			{
+				ReentrantLock stripe = this.stripe(ip);
+				stripe.lock();
+				try
+				{
+					// The table may have been rebuilt before the lock was held
+					if (slots == this.slots)
+					{
+						int i = slots.claim(ip);
+						if (i >= 0)
+						{
+							boolean added = 
+									(NO_MAC == (long)LONGS.getOpaque(slots.macs, i));
+							if (added)
+							{ this.size.incrementAndGet(); }
+							slots.write(i, mac, time);
+							return added;
+						}
+					}
+				}
+				finally
+				{ stripe.unlock(); }
+			}
+			this.rebuild(slots);
+		}
+	}
+
+	/**
+	 * Remove the mapping for an IP address if it was added at a specific
+	 * time, so a mapping that has since been replaced is kept.
+	 * @param ip IP address
+	 * @param time time (in milliseconds since the epoch) the mapping to
+	 *        remove was added
+	 * @return true if the mapping was removed, otherwise false
+	 */
+	public boolean remove(int ip, long time)
+	{
+		ReentrantLock stripe = this.stripe(ip);
+		stripe.lock();
+		try
+		{
+			Slots slots = this.slots;
+			int i = slots.find(ip);
+			if (i < 0 || NO_MAC == (long)LONGS.getOpaque(slots.macs, i)
+					|| slots.times[i] != time)
+			{ return false; }
+			slots.write(i, NO_MAC, 0);
+			this.size.decrementAndGet();
+			return true;
+		}
+		finally
+		{ stripe.unlock(); }
+	}
+
+	/**
+	 * Rebuild the table, dropping the slots of removed mappings, and double
+	 * its number of slots if it is still too full.
+	 * @param full the arrays found to be too full
+	 */
+	private void rebuild(Slots full)
+	{
+		for (ReentrantLock stripe : this.stripes)
+		{ stripe.lock(); }
+		try
+		{
+			// Another update may have rebuilt the table already
+			if (full != this.slots)
+			{ return; }
+
+			int capacity = tableSize(this.size.get() * 2);
+			if (capacity < full.keys.length)
+			{ capacity = full.keys.length; }
+			Slots slots = new Slots(capacity);
+			for (int i = 0; i < full.keys.length; i++)
+			{
+				if (full.keys[i] != 0 && full.macs[i] != NO_MAC)
+				{
+					int j = slots.claim(full.keys[i]);
+					slots.macs[j] = full.macs[i];
+					slots.times[j] = full.times[i];
+				}
+			}
+			this.slots = slots;
+		}
+		finally
+		{
+			for (ReentrantLock stripe : this.stripes)
+			{ stripe.unlock(); }
+		}
+	}
+}
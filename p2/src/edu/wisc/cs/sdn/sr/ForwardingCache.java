@@ -0,0 +1,129 @@
+package edu.wisc.cs.sdn.sr;
+
+/**
+ * A bounded, direct-mapped cache of forwarding decisions, keyed by
+ * destination IP address. Each decision records the route table generation
+ * it was derived from, and is ignored once the route table has changed.
+ * Decisions refer to adjacencies, which the ARP cache updates in place, so
+ * ARP changes never require flushing the cache.
+ */
+public class ForwardingCache
+{
+	/**
+	 * A resolved forwarding decision for a destination IP address.
+	 */
+	public static class Entry
+	{
+		/** Destination IP address */
+		private final int destinationAddress;
+
+		/** Route table generation from which the decision was derived */
+		private final long routeGeneration;
+
+		/** Route for the destination; null if the destination is on a 
+		 * directly connected subnet */
+		private final RouteTableEntry route;
+
+		/** Next hop for a destination on a directly connected subnet; null if
+		 * the destination is reached through a gateway */
+		private final Adjacency adjacency;
+
+		/**
+		 * Create a forwarding decision for a destination reached through one
+		 * or more gateways.
+		 * @param destinationAddress destination IP address
+		 * @param routeGeneration route table generation from which the
+		 *        decision was derived
+		 * @param route route for the destination; must have a gateway
+		 */
+		public Entry(int destinationAddress, long routeGeneration,
+				RouteTableEntry route)
+		{
+			this.destinationAddress = destinationAddress;
+			this.routeGeneration = routeGeneration;
+			this.route = route;
+			this.adjacency = null;
+		}
+
+		/**
+		 * Create a forwarding decision for a destination on a directly
+		 * connected subnet.
+		 * @param destinationAddress destination IP address
+		 * @param routeGeneration route table generation from which the
+		 *        decision was derived
+		 * @param adjacency next hop for the destination
+		 */
+		public Entry(int destinationAddress, long routeGeneration,
+				Adjacency adjacency)
+		{
+			this.destinationAddress = destinationAddress;
+			this.routeGeneration = routeGeneration;
+			this.route = null;
+			this.adjacency = adjacency;
+		}
+
+		/**
+		 * @return destination IP address
+		 */
+		public int getDestinationAddress()
+		{ return this.destinationAddress; }
+
+		/**
+		 * @param flowHash hash of a flow's addresses, protocol, and ports; 
+		 *        used to choose among equal-cost next hops
+		 * @return next hop for the flow
+		 */
+		public Adjacency getAdjacency(int flowHash)
+		{
+			if (null == this.route)
+			{ return this.adjacency; }
+			return this.route.selectAdjacency(flowHash);
+		}
+	}
+
+	/** Default number of slots in the cache */
+	public static final int DEFAULT_SIZE = 4096;
+
+	/** Slots in the cache; each destination can only occupy one slot */
+	private final Entry[] slots;
+
+	/** Number of bits used to select a slot */
+	private final int bits;
+
+	/**
+	 * Create an empty cache.
+	 * @param size number of slots; rounded up to a power of two
+	 */
+	public ForwardingCache(int size)
+	{
+		this.bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+		this.slots = new Entry[1 << this.bits];
+	}
+
+	private int slot(int ip)
+	{ return (ip * 0x9E3779B9) >>> (32 - this.bits); }
+
+	/**
+	 * Find the forwarding decision for a destination IP address.
+	 * @param ip destination IP address
+	 * @param routeGeneration current route table generation
+	 * @return the decision for the destination; null if none is cached or
+	 *         the cached decision is stale
+	 */
+	public Entry lookup(int ip, long routeGeneration)
+	{
+		Entry entry = this.slots[this.slot(ip)];
+		if (null == entry || entry.destinationAddress != ip
+				|| entry.routeGeneration != routeGeneration)
+		{ return null; }
+		return entry;
+	}
+
+	/**
+	 * Cache a forwarding decision, replacing any decision occupying the
+	 * same slot.
+	 * @param entry the decision to cache
+	 */
+	public void put(Entry entry)
+	{ this.slots[this.slot(entry.destinationAddress)] = entry; }
+}
@@ -0,0 +1,190 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Forwarding table compiled from the entries in a route table, using the
+ * DIR-24-8 scheme: the first 24 bits of an address index directly into a
+ * table of 2^24 slots, and the slots for /24 networks that contain longer
+ * prefixes point to a block of 256 slots indexed by the last 8 bits. Any
+ * address is resolved in at most two array reads.
+ *
+ * Slots hold indices into an array of the routes, so a lookup returns the
+ * route that matched. A compiled table is never modified; it should be 
+ * rebuilt whenever the route table changes.
+ */
+public class ForwardingTable
+{
+	/** Number of slots in the first stage table */
+	private static final int TBL24_SIZE = 1 << 24;
+
+	/** Number of slots in each second stage block */
+	private static final int TBL8_BLOCK_SIZE = 1 << 8;
+
+	/** Flag set in a first stage slot that refers to a second stage block */
+	private static final int TBL8_FLAG = 0x80000000;
+
+	/** Maximum number of routes; slots are 32 bits, with one bit reserved for
+	 * the flag and index 0 meaning no route */
+	public static final int MAX_INDEX = 0x7FFFFFFF;
+
+	/** Maximum number of second stage blocks, so the blocks' slots can be 
+	 * indexed by an int */
+	private static final int MAX_BLOCKS = MAX_INDEX / TBL8_BLOCK_SIZE;
+
+	/** First stage table; each slot is a route index (plus 1), 0 if there is
+	 * no route, or a second stage block index with TBL8_FLAG set */
+	private int[] tbl24;
+
+	/** Second stage blocks; each slot is a route index (plus 1) or 0 */
+	private int[] tbl8;
+
+	/** Number of second stage blocks in use */
+	private int tbl8Blocks;
+
+	/** Routes, shortest prefix first */
+	private RouteTableEntry[] routes;
+
+	/** Number of routes from which the table was compiled */
+	private int routeCount;
+
+	/** Time (in milliseconds) taken to compile the table */
+	private long buildTime;
+
+	private ForwardingTable()
+	{ }
+
+	/**
+	 * Compile a forwarding table from a set of route table entries.
+	 * @param entries entries in the route table
+	 * @return the compiled forwarding table; null if there are more routes
+	 *         or second stage blocks than the table can hold
+	 */
+	public static ForwardingTable build(List<RouteTableEntry> entries)
+	{
+		long start = System.currentTimeMillis();
+		ForwardingTable fib = new ForwardingTable();
+		fib.routeCount = entries.size();
+
+		// Routes must be installed shortest prefix first, so longer prefixes
+		// overwrite the slots of the shorter prefixes that contain them
+		List<RouteTableEntry> sorted = new ArrayList<RouteTableEntry>(entries);
+		Collections.sort(sorted, new Comparator<RouteTableEntry>() {
+			public int compare(RouteTableEntry a, RouteTableEntry b)
+			{
+				return Integer.compare(
+						RouteTrie.prefixLength(a.getMaskAddress()),
+						RouteTrie.prefixLength(b.getMaskAddress()));
+			}
+		});
+
+		if (sorted.size() >= MAX_INDEX)
+		{ return null; }
+		fib.routes = sorted.toArray(new RouteTableEntry[sorted.size()]);
+
+		// Install routes
+		fib.tbl24 = new int[TBL24_SIZE];
+		fib.tbl8 = new int[16 * TBL8_BLOCK_SIZE];
+		fib.tbl8Blocks = 0;
+		for (int i = 0; i < fib.routes.length; i++)
+		{
+			RouteTableEntry entry = fib.routes[i];
+			int length = RouteTrie.prefixLength(entry.getMaskAddress());
+			int prefix = entry.getDestinationAddress()
+					& RouteTrie.prefixMask(length);
+			int route = i + 1;
+
+			if (length <= 24)
+			{
+				int first = prefix >>> 8;
+				Arrays.fill(fib.tbl24, first, first + (1 << (24 - length)),
+						route);
+				continue;
+			}
+
+			// Make sure the /24 containing the prefix has a second stage block
+			int slot = prefix >>> 8;
+			int block;
+			if ((fib.tbl24[slot] & TBL8_FLAG) != 0)
+			{ block = fib.tbl24[slot] & MAX_INDEX; }
+			else
+			{
+				if (fib.tbl8Blocks >= MAX_BLOCKS)
+				{ return null; }
+				block = fib.tbl8Blocks++;
+				if (fib.tbl8Blocks * TBL8_BLOCK_SIZE > fib.tbl8.length)
+				{
+					fib.tbl8 = Arrays.copyOf(fib.tbl8, (int)Math.min(
+							2L * fib.tbl8.length, MAX_BLOCKS * TBL8_BLOCK_SIZE));
+				}
+
+				// Inherit the route that covered the whole /24
+				Arrays.fill(fib.tbl8, block * TBL8_BLOCK_SIZE,
+						(block + 1) * TBL8_BLOCK_SIZE, fib.tbl24[slot]);
+				fib.tbl24[slot] = TBL8_FLAG | block;
+			}
+
+			int first = block * TBL8_BLOCK_SIZE + (prefix & 0xFF);
+			Arrays.fill(fib.tbl8, first, first + (1 << (32 - length)),
+					route);
+		}
+		fib.tbl8 = Arrays.copyOf(fib.tbl8, fib.tbl8Blocks * TBL8_BLOCK_SIZE);
+
+		fib.buildTime = System.currentTimeMillis() - start;
+		return fib;
+	}
+
+	/**
+	 * Find the longest prefix match for an IP address.
+	 * @param ip IP address to match
+	 * @return the matching route table entry; null if no route matches
+	 */
+	public RouteTableEntry lookup(int ip)
+	{
+		int slot = this.tbl24[ip >>> 8];
+		if ((slot & TBL8_FLAG) != 0)
+		{ slot = this.tbl8[((slot & MAX_INDEX) << 8) | (ip & 0xFF)]; }
+		if (0 == slot)
+		{ return null; }
+		return this.routes[slot - 1];
+	}
+
+	/**
+	 * @return number of routes from which the table was compiled
+	 */
+	public int getRouteCount()
+	{ return this.routeCount; }
+
+	/**
+	 * @return number of second stage blocks
+	 */
+	public int getBlockCount()
+	{ return this.tbl8Blocks; }
+
+	/**
+	 * @return time (in milliseconds) taken to compile the table
+	 */
+	public long getBuildTime()
+	{ return this.buildTime; }
+
+	/**
+	 * @return approximate number of bytes used by the table's arrays
+	 */
+	public long getMemoryFootprint()
+	{
+		return 4L * this.tbl24.length + 4L * this.tbl8.length
+				+ 4L * this.routes.length;
+	}
+
+	public String toString()
+	{
+		return String.format("DIR-24-8 forwarding table: %d routes, "
+				+ "%d second stage blocks, %.1f MB, built in %d ms",
+				this.routeCount, this.tbl8Blocks,
+				this.getMemoryFootprint() / (1024.0 * 1024.0), this.buildTime);
+	}
+}
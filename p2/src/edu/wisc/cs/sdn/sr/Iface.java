@@ -10,13 +10,21 @@ import net.floodlightcontroller.util.MACAddress;
 public class Iface 
 {
 	private String name;
+	private int index;
 	private MACAddress macAddress;
 	private int ipAddress;
     private int subnetMask;
 	
-	public Iface(String name)
+	/**
+	 * Create an interface.
+	 * @param name name of the interface
+	 * @param index small, dense integer that identifies the interface within
+	 *        the router
+	 */
+	public Iface(String name, int index)
 	{
 		this.name = name;
+		this.index = index;
 		this.macAddress = null;
 		this.ipAddress = 0;
 	}
@@ -24,6 +32,13 @@ public class Iface
 	public String getName()
 	{ return this.name; }
 	
+	/**
+	 * @return small, dense integer that identifies the interface within the 
+	 *         router
+	 */
+	public int getIndex()
+	{ return this.index; }
+	
 	public void setMacAddress(MACAddress mac)
 	{ this.macAddress = mac; }
 	
@@ -0,0 +1,129 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.Arrays;
+
+/**
+ * A set of ints stored in an open-addressed hash table of primitives, so
+ * membership tests neither box their argument nor follow pointers. Not safe
+ * for concurrent modification; publish a fully built set to share it between
+ * threads.
+ */
+public class IntHashSet
+{
+	/** Marks an empty slot; whether 0 itself is in the set is tracked
+	 * separately */
+	private static final int EMPTY = 0;
+
+	/** Slots in the table; the number of slots is a power of two */
+	private int[] slots;
+
+	/** Number of bits used to select a slot */
+	private int bits;
+
+	/** Number of values in the set, not counting 0 */
+	private int size;
+
+	/** Whether 0 is in the set */
+	private boolean containsZero;
+
+	/**
+	 * Create an empty set.
+	 * @param capacity number of values the set can hold before growing
+	 */
+	public IntHashSet(int capacity)
+	{
+		this.bits = Math.max(2, 32 - Integer.numberOfLeadingZeros(
+				2 * Math.max(capacity, 1) - 1));
+		this.slots = new int[1 << this.bits];
+		this.size = 0;
+		this.containsZero = false;
+	}
+
+	private int slot(int value)
+	{ return (value * 0x9E3779B9) >>> (32 - this.bits); }
+
+	/**
+	 * Add a value to the set.
+	 * @param value value to add
+	 * @return true if the value was added, false if it was already present
+	 */
+	public boolean add(int value)
+	{
+		if (EMPTY == value)
+		{
+			boolean added = !this.containsZero;
+			this.containsZero = true;
+			return added;
+		}
+
+		// Keep the table at most half full, so probe sequences stay short
+		if (2 * (this.size + 1) > this.slots.length)
+		{ this.grow(); }
+
+		int mask = this.slots.length - 1;
+		for (int i = this.slot(value); ; i = (i + 1) & mask)
+		{
+			if (this.slots[i] == value)
+			{ return false; }
+			if (EMPTY == this.slots[i])
+			{
+				this.slots[i] = value;
+				this.size++;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Determine whether a value is in the set.
+	 * @param value value to find
+	 * @return true if the value is in the set, otherwise false
+	 */
+	public boolean contains(int value)
+	{
+		if (EMPTY == value)
+		{ return this.containsZero; }
+		int[] slots = this.slots;
+		int mask = slots.length - 1;
+		for (int i = this.slot(value); ; i = (i + 1) & mask)
+		{
+			if (slots[i] == value)
+			{ return true; }
+			if (EMPTY == slots[i])
+			{ return false; }
+		}
+	}
+
+	/**
+	 * @return number of values in the set
+	 */
+	public int size()
+	{ return this.size + (this.containsZero ? 1 : 0); }
+
+	private void grow()
+	{
+		int[] old = this.slots;
+		this.bits++;
+		this.slots = new int[1 << this.bits];
+		this.size = 0;
+		for (int value : old)
+		{
+			if (value != EMPTY)
+			{ this.add(value); }
+		}
+	}
+
+	public String toString()
+	{
+		int[] values = new int[this.size()];
+		int count = 0;
+		if (this.containsZero)
+		{ values[count++] = 0; }
+		for (int value : this.slots)
+		{
+			if (value != EMPTY)
+			{ values[count++] = value; }
+		}
+		return Arrays.toString(values);
+	}
+}
@@ -17,10 +17,14 @@ public class Main
 		String user = null;
 		String server = DEFAULT_SERVER;
 		String routeTableFile = null;
+		String snapshotFile = null;
 		String logfile = null;
 		String template = null;
 		short port = DEFAULT_PORT;
 		short topo = DEFAULT_TOPO;
+		RouteTable.LookupMode lookupMode = RouteTable.LookupMode.TRIE;
+		ArpCache.DropPolicy dropPolicy = ArpCache.DropPolicy.TAIL_DROP;
+		boolean verbose = false;
 		Router router = null;
 		VNSComm vnsComm = null;
 		
@@ -49,12 +53,48 @@ public class Main
 			{ logfile = args[++i]; }
 			else if (arg.equals("-r"))
 			{ routeTableFile = args[++i]; }
+			else if (arg.equals("-S"))
+			{ snapshotFile = args[++i]; }
 			else if (arg.equals("-T"))
 			{ template = args[++i]; }
+			else if (arg.equals("-V"))
+			{ verbose = true; }
+			else if (arg.equals("-L"))
+			{
+				String mode = args[++i];
+				if (mode.equals("trie"))
+				{ lookupMode = RouteTable.LookupMode.TRIE; }
+				else if (mode.equals("dir24-8"))
+				{ lookupMode = RouteTable.LookupMode.DIR_24_8; }
+				else
+				{
+					System.err.println("Unknown lookup mode " + mode);
+					usage();
+					System.exit(1);
+				}
+			}
+			else if (arg.equals("-Q"))
+			{
+				String policy = args[++i];
+				if (policy.equals("tail"))
+				{ dropPolicy = ArpCache.DropPolicy.TAIL_DROP; }
+				else if (policy.equals("oldest"))
+				{ dropPolicy = ArpCache.DropPolicy.DROP_OLDEST; }
+				else
+				{
+					System.err.println("Unknown drop policy " + policy);
+					usage();
+					System.exit(1);
+				}
+			}
 		}
 		
 		// Create router instance
 		router = new Router(topo, host, user, template);
+		router.getRouteTable().setLookupMode(lookupMode);
+		router.getArpCache().setDropPolicy(dropPolicy);
+		router.setVerbose(verbose);
+		router.setRouteSnapshotFile(snapshotFile);
 		
 		// Load routing table from file
 		/*if (null == template)
@@ -117,8 +157,9 @@ public class Main
 		System.out.println("Simple Router Client");
 		System.out.println("Main [-h] [-v host] [-s server] [-p port]");
 		System.out.println("     [-T template_name] [-u username]");
-		System.out.println("     [-t topo_id] [-r routing_table]");
-		System.out.println("     [-l log_file]");
+		System.out.println("     [-t topo_id] [-r routing_table] [-S snapshot_file]");
+		System.out.println("     [-l log_file] [-L trie|dir24-8]");
+		System.out.println("     [-Q tail|oldest] [-V]");
 		System.out.println(String.format("  defaults server=%s port=%d host=%s", 
 				DEFAULT_SERVER, DEFAULT_PORT, DEFAULT_HOST));
 	}
@@ -0,0 +1,202 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A list of routes stored as parallel arrays of primitives, rather than as
+ * individual route table entries. Used to load large route tables without
+ * creating an object per field.
+ */
+public class PackedRoutes
+{
+	/** Number of routes */
+	private int count;
+
+	/** Destination IP address of each route */
+	private int[] destinations;
+
+	/** Gateway IP address of each route */
+	private int[] gateways;
+
+	/** Subnet mask of each route */
+	private int[] masks;
+
+	/** Number of hops to the destination of each route */
+	private int[] costs;
+
+	/** Index (into the list of interface names) of the interface for each
+	 * route */
+	private int[] interfaces;
+
+	/** Names of the interfaces used by the routes */
+	private List<String> interfaceNames;
+
+	/** Maps interface names to their index in the list of names */
+	private Map<String,Integer> interfaceIndices;
+
+	/**
+	 * Create an empty list of routes.
+	 * @param capacity number of routes the list can hold before growing
+	 */
+	public PackedRoutes(int capacity)
+	{
+		capacity = Math.max(capacity, 16);
+		this.count = 0;
+		this.destinations = new int[capacity];
+		this.gateways = new int[capacity];
+		this.masks = new int[capacity];
+		this.costs = new int[capacity];
+		this.interfaces = new int[capacity];
+		this.interfaceNames = new ArrayList<String>();
+		this.interfaceIndices = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Create a list of routes from existing arrays; the arrays are used 
+	 * directly, not copied.
+	 * @param count number of routes
+	 * @param destinations destination IP address of each route
+	 * @param gateways gateway IP address of each route
+	 * @param masks subnet mask of each route
+	 * @param costs number of hops to the destination of each route
+	 * @param interfaces index of the interface name for each route
+	 * @param interfaceNames names of the interfaces used by the routes
+	 */
+	PackedRoutes(int count, int[] destinations, int[] gateways, int[] masks,
+			int[] costs, int[] interfaces, List<String> interfaceNames)
+	{
+		this.count = count;
+		this.destinations = destinations;
+		this.gateways = gateways;
+		this.masks = masks;
+		this.costs = costs;
+		this.interfaces = interfaces;
+		this.interfaceNames = new ArrayList<String>();
+		this.interfaceIndices = new HashMap<String,Integer>();
+		for (String interfaceName : interfaceNames)
+		{ this.interfaceIndex(interfaceName); }
+	}
+
+	/**
+	 * @return number of routes
+	 */
+	public int size()
+	{ return this.count; }
+
+	/**
+	 * Add a route to the end of the list.
+	 * @param dstIp destination IP
+	 * @param gwIp gateway IP
+	 * @param maskIp subnet mask
+	 * @param interfaceIndex index of the route's interface, as returned by
+	 *        {@link #interfaceIndex(String)}
+	 * @param cost number of hops to the destination
+	 */
+	public void add(int dstIp, int gwIp, int maskIp, int interfaceIndex,
+			int cost)
+	{
+		if (this.count == this.destinations.length)
+		{
+			int capacity = 2 * this.count;
+			this.destinations = Arrays.copyOf(this.destinations, capacity);
+			this.gateways = Arrays.copyOf(this.gateways, capacity);
+			this.masks = Arrays.copyOf(this.masks, capacity);
+			this.costs = Arrays.copyOf(this.costs, capacity);
+			this.interfaces = Arrays.copyOf(this.interfaces, capacity);
+		}
+		this.destinations[this.count] = dstIp;
+		this.gateways[this.count] = gwIp;
+		this.masks[this.count] = maskIp;
+		this.interfaces[this.count] = interfaceIndex;
+		this.costs[this.count] = cost;
+		this.count++;
+	}
+
+	/**
+	 * Add all routes in another list to the end of this list.
+	 * @param other list of routes to add
+	 */
+	public void addAll(PackedRoutes other)
+	{
+		int[] remap = new int[other.interfaceNames.size()];
+		for (int i = 0; i < remap.length; i++)
+		{ remap[i] = this.interfaceIndex(other.interfaceNames.get(i)); }
+		for (int i = 0; i < other.count; i++)
+		{
+			this.add(other.destinations[i], other.gateways[i], other.masks[i],
+					remap[other.interfaces[i]], other.costs[i]);
+		}
+	}
+
+	/**
+	 * Get the index for an interface name, assigning a new index if the name
+	 * has not been seen before.
+	 * @param interfaceName name of the interface
+	 * @return index of the interface name
+	 */
+	public int interfaceIndex(String interfaceName)
+	{
+		Integer index = this.interfaceIndices.get(interfaceName);
+		if (null == index)
+		{
+			index = this.interfaceNames.size();
+			this.interfaceNames.add(interfaceName);
+			this.interfaceIndices.put(interfaceName, index);
+		}
+		return index;
+	}
+
+	/**
+	 * @param index which route
+	 * @return destination IP address of the route
+	 */
+	public int getDestinationAddress(int index)
+	{ return this.destinations[index]; }
+
+	/**
+	 * @param index which route
+	 * @return gateway IP address of the route
+	 */
+	public int getGatewayAddress(int index)
+	{ return this.gateways[index]; }
+
+	/**
+	 * @param index which route
+	 * @return subnet mask of the route
+	 */
+	public int getMaskAddress(int index)
+	{ return this.masks[index]; }
+
+	/**
+	 * @param index which route
+	 * @return number of hops to the destination of the route
+	 */
+	public int getCost(int index)
+	{ return this.costs[index]; }
+
+	/**
+	 * @param index which route
+	 * @return index (into the list of interface names) of the interface for
+	 *         the route
+	 */
+	public int getInterfaceIndex(int index)
+	{ return this.interfaces[index]; }
+
+	/**
+	 * @return names of the interfaces used by the routes, in index order
+	 */
+	public List<String> getInterfaceNames()
+	{ return Collections.unmodifiableList(this.interfaceNames); }
+
+	/**
+	 * @param index which route
+	 * @return name of the router interface for the route
+	 */
+	public String getInterface(int index)
+	{ return this.interfaceNames.get(this.interfaces[index]); }
+}
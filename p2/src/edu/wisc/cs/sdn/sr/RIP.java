@@ -1,13 +1,17 @@
 package edu.wisc.cs.sdn.sr;
 
+import java.io.File;
+import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Set;
 
 import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.packet.IPv4;
 import net.floodlightcontroller.packet.RIPv2;
 import net.floodlightcontroller.packet.RIPv2Entry;
 import net.floodlightcontroller.packet.UDP;
+import net.floodlightcontroller.util.MACAddress;
 
 /**
  * Implements RIP. 
@@ -16,8 +20,7 @@ import net.floodlightcontroller.packet.UDP;
 public class RIP implements Runnable
 {
 	public static final int RIP_MULTICAST_IP = 0xE0000009;
-	private static final byte[] BROADCAST_MAC = {(byte)0xFF, (byte)0xFF, 
-		(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF};
+	private static final long BROADCAST_MAC = MACAddress.BROADCAST.toLong();
 
 	/** Send RIP updates every 10 seconds */
 	private static final int UPDATE_INTERVAL = 10;
@@ -31,12 +34,26 @@ public class RIP implements Runnable
 	/** Thread for periodic tasks */
 	private Thread tasksThread;
 
+	/** File to which the route table is saved after each update interval, and
+	 * from which learned routes are restored at startup; null if routes 
+	 * should not be saved */
+	private String snapshotFile;
+
 	public RIP(Router router)
 	{ 
 		this.router = router; 
 		this.tasksThread = new Thread(this);
+		this.snapshotFile = null;
 	}
 
+	/**
+	 * @param snapshotFile file to which the route table should be saved after
+	 *        each update interval, and from which learned routes should be
+	 *        restored at startup; null if routes should not be saved
+	 */
+	public void setSnapshotFile(String snapshotFile)
+	{ this.snapshotFile = snapshotFile; }
+
 	public void init()
 	{
 		// If we are using static routing, then don't do anything
@@ -44,13 +61,33 @@ public class RIP implements Runnable
 		{ return; }
 
 		System.out.println("RIP: Build initial routing table.");
-		for(Iface iface : this.router.getInterfaces().values())
+		RouteTable.Update update = this.router.getRouteTable().beginUpdate();
+		try
 		{
-			this.router.getRouteTable().addEntry(
-					(iface.getIpAddress() & iface.getSubnetMask()),
-					0, // No gateway for subnets this router is connected to
-					iface.getSubnetMask(), iface.getName(), 1);
+			for(Iface iface : this.router.getInterfaces().values())
+			{
+				update.addEntry(
+						(iface.getIpAddress() & iface.getSubnetMask()),
+						0, // No gateway for subnets this router is connected to
+						iface.getSubnetMask(), iface.getName(), 1);
+			}
+
+			// Restore the routes learned before the router last stopped, so
+			// they can be used while RIP reconverges; they expire as usual if
+			// neighbors stop advertising them
+			if (this.snapshotFile != null && new File(this.snapshotFile).exists())
+			{
+				PackedRoutes saved = RouteSnapshotFile.load(this.snapshotFile);
+				if (saved != null) {
+					int restored = update.restore(saved, System.currentTimeMillis(),
+							this.router.getInterfaces().keySet());
+					System.out.println("RIP: Restored " + restored + " routes from " 
+							+ this.snapshotFile);
+				}
+			}
 		}
+		finally
+		{ update.commit(); }
 		System.out.println("Route Table:\n" + this.router.getRouteTable());
 
 		this.tasksThread.start();
@@ -70,7 +107,7 @@ public class RIP implements Runnable
 		/*********************************************************************/
 	}
 
-	public boolean sendRIPPacket(RIPv2 ripPacket, Iface iface, int destIPAddress, byte[] destMacAddress) {
+	public boolean sendRIPPacket(RIPv2 ripPacket, Iface iface, int destIPAddress, long destMacAddress) {
 		UDP udp = new UDP();
 		udp.setPayload(ripPacket);
 		udp.setDestinationPort(UDP.RIP_PORT);
@@ -87,7 +124,7 @@ public class RIP implements Runnable
 
 		Ethernet etherPacket = new Ethernet();
 		etherPacket.setDestinationMACAddress(destMacAddress);
-		etherPacket.setSourceMACAddress(iface.getMacAddress().toBytes());
+		etherPacket.setSourceMACAddress(iface.getMacAddress());
 		etherPacket.setEtherType(Ethernet.TYPE_IPv4);
 		etherPacket.setPayload(ipPacket);
 
@@ -114,18 +151,47 @@ public class RIP implements Runnable
 
 		/*********************************************************************/
 		/* TODO: Handle RIP packet                                           */
-		for (RIPv2Entry ripv2Entry : ripPacket.getEntries()) {
-			if (ripv2Entry.getMetric() >= 16) {
-				continue;
+		// The sender is a neighbor, and likely a gateway for the routes it
+		// advertises, so learn its MAC address without waiting for ARP
+		router.learnArpMapping(ipPacket.getSourceAddress(), 
+				MACAddress.valueOf(etherPacket.getSourceMACLong()), inIface);
+
+		// Apply all of the advertised routes as a single route table update
+		Set<Integer> gateways = new HashSet<Integer>();
+		RouteTable.Update update = router.getRouteTable().beginUpdate();
+		try {
+			for (RIPv2Entry ripv2Entry : ripPacket.getEntries()) {
+				if (ripv2Entry.getMetric() >= 16) {
+					continue;
+				}
+				RouteTableEntry routeTableEntry = update.findEntry(ripv2Entry.getAddress(), ripv2Entry.getSubnetMask());
+				if (routeTableEntry == null) {
+					gateways.add(ripv2Entry.getNextHopAddress());
+					update.addEntry(ripv2Entry.getAddress(), ripv2Entry.getNextHopAddress(), ripv2Entry.getSubnetMask(), 
+							inIface.getName(), ripv2Entry.getMetric() + 1);
+				} else if (ripv2Entry.getMetric() + 1 < routeTableEntry.getCost()) {
+					gateways.add(ripv2Entry.getNextHopAddress());
+					update.updateEntry(ripv2Entry.getAddress(), ripv2Entry.getSubnetMask(), 
+							ripv2Entry.getNextHopAddress(), inIface.getName(), ripv2Entry.getMetric() + 1, 
+							System.currentTimeMillis());
+				} else if (ripv2Entry.getMetric() + 1 == routeTableEntry.getCost()) {
+					// An equal-cost route through this neighbor: use it as an
+					// additional path, or refresh it if it is already one
+					gateways.add(ripv2Entry.getNextHopAddress());
+					update.addPath(ripv2Entry.getAddress(), ripv2Entry.getSubnetMask(),
+							ripv2Entry.getNextHopAddress(), inIface.getName(),
+							System.currentTimeMillis());
+				}
 			}
-			RouteTableEntry routeTableEntry = router.getRouteTable().findEntry(ripv2Entry.getAddress(), ripv2Entry.getSubnetMask());
-			if (routeTableEntry == null) {
-				router.getRouteTable().addEntry(ripv2Entry.getAddress(), ripv2Entry.getNextHopAddress(), ripv2Entry.getSubnetMask(), 
-						inIface.getName(), ripv2Entry.getMetric() + 1);
-			} else if (ripv2Entry.getMetric() + 1 < routeTableEntry.getCost()) {
-				router.getRouteTable().updateEntry(ripv2Entry.getAddress(), ripv2Entry.getSubnetMask(), 
-						ripv2Entry.getNextHopAddress(), inIface.getName(), System.currentTimeMillis());
-				routeTableEntry.setCost(ripv2Entry.getMetric() + 1);
+		} finally {
+			update.commit();
+		}
+
+		// Resolve new gateways now, so the first packets routed through them
+		// do not wait for ARP
+		for (int gateway : gateways) {
+			if (gateway != 0) {
+				router.getArpCache().prefetch(gateway, inIface.getIndex());
 			}
 		}
 
@@ -136,7 +202,7 @@ public class RIP implements Runnable
 			ListIterator<RIPv2Entry> it = toBeSent.listIterator();
 			while (it.hasNext()) {
 				RIPv2Entry e = it.next();
-				if (e.getInterfaceName().equals(inIface.getName())) {
+				if (e.getInterfaceIndex() == inIface.getIndex()) {
 					it.remove();
 				} else {
 					e.setNextHopAddress(inIface.getIpAddress());
@@ -144,7 +210,7 @@ public class RIP implements Runnable
 			}
 			ripv2.setEntries(toBeSent);
 			// Rest the gateway IP
-			sendRIPPacket(ripv2, inIface, ipPacket.getSourceAddress(), etherPacket.getSourceMACAddress());
+			sendRIPPacket(ripv2, inIface, ipPacket.getSourceAddress(), etherPacket.getSourceMACLong());
 		}
 		/*********************************************************************/
 	}
@@ -173,7 +239,7 @@ public class RIP implements Runnable
 				ListIterator<RIPv2Entry> it = toBeSent.listIterator();
 				while (it.hasNext()) {
 					RIPv2Entry e = it.next();
-					if (e.getInterfaceName().equals(iface.getName())) {
+					if (e.getInterfaceIndex() == iface.getIndex()) {
 						it.remove();
 					} else {
 						e.setNextHopAddress(iface.getIpAddress());
@@ -183,23 +249,28 @@ public class RIP implements Runnable
 
 				sendRIPPacket(ripv2, iface, RIP_MULTICAST_IP, BROADCAST_MAC);
 			}
+
+			if (this.snapshotFile != null)
+				router.getRouteTable().save(this.snapshotFile);
 		}
 		/*********************************************************************/
 	}
 
 	public void timeoutRouteTableEntries() {
-		ListIterator<RouteTableEntry> it = router.getRouteTable().getEntries().listIterator();
-
-		while (it.hasNext()) {
-			RouteTableEntry rtEntry = it.next();
-
-			if (rtEntry.getGatewayAddress() == 0)
-				continue;
-
-			if (System.currentTimeMillis() - rtEntry.getTime() >= RIP.TIMEOUT * 1000)
-				synchronized(router.getRouteTable().getEntries()) {
-					it.remove();
+		RouteTable.Update update = router.getRouteTable().beginUpdate();
+		try {
+			long now = System.currentTimeMillis();
+			for (RouteTableEntry rtEntry : router.getRouteTable().getEntries()) {
+				// Expire each equal-cost path on its own; the route is removed
+				// once all of its paths have expired
+				for (int i = 0; i < rtEntry.getAdjacencyCount(); i++) {
+					if (now - rtEntry.getAdjacencyTime(i) >= RIP.TIMEOUT * 1000)
+						update.removePath(rtEntry.getDestinationAddress(), rtEntry.getMaskAddress(),
+								rtEntry.getAdjacency(i));
 				}
+			}
+		} finally {
+			update.commit();
 		}
 	}
 }
@@ -0,0 +1,261 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes route tables in a compact binary format, so a large table
+ * can be loaded without parsing text, and routes learned by RIP can be
+ * restored after the router restarts.
+ *
+ * A file contains (all values are big-endian):
+ * <pre>
+ *   int    magic number (RTBL)
+ *   int    format version
+ *   int    number of routes
+ *   int    number of interface names
+ *          interface names, each a byte length followed by ASCII characters,
+ *          padded with zeros to a multiple of 4 bytes
+ *   int[]  destination IP address of each route
+ *   int[]  subnet mask of each route
+ *   int[]  gateway IP address of each route
+ *   int[]  number of hops to the destination of each route
+ *   int[]  index of the interface name for each route
+ * </pre>
+ * A route with several equal-cost next hops is stored as one route per next
+ * hop, in consecutive positions.
+ */
+public class RouteSnapshotFile
+{
+	/** Identifies a route table snapshot file */
+	public static final int MAGIC = 0x5254424C;
+
+	/** Version of the format written by this class */
+	public static final int VERSION = 1;
+
+	/** Size of the fixed portion of the header */
+	private static final int HEADER_SIZE = 16;
+
+	/**
+	 * Determine whether a file is a route table snapshot.
+	 * @param filename name of the file
+	 * @return true if the file starts with the snapshot magic number,
+	 *         otherwise false
+	 */
+	public static boolean isSnapshot(String filename)
+	{
+		RandomAccessFile file = null;
+		try
+		{
+			file = new RandomAccessFile(filename, "r");
+			return (file.length() >= HEADER_SIZE && file.readInt() == MAGIC);
+		}
+		catch (IOException e)
+		{ return false; }
+		finally
+		{
+			if (file != null)
+			{ try { file.close(); } catch (IOException f) {}; }
+		}
+	}
+
+	/**
+	 * Write the entries of a route table to a file. The file is written under
+	 * a temporary name and then renamed, so a reader never sees a partially
+	 * written snapshot.
+	 * @param entries entries to write
+	 * @param filename name of the file
+	 * @return true if the entries were written, otherwise false
+	 */
+	public static boolean save(List<RouteTableEntry> entries, String filename)
+	{
+		// Flatten the entries into one route per next hop
+		PackedRoutes routes = new PackedRoutes(entries.size());
+		for (RouteTableEntry entry : entries)
+		{
+			if (0 == entry.getAdjacencyCount())
+			{
+				routes.add(entry.getDestinationAddress(),
+						entry.getGatewayAddress(), entry.getMaskAddress(),
+						routes.interfaceIndex(entry.getInterface()),
+						entry.getCost());
+				continue;
+			}
+			for (int i = 0; i < entry.getAdjacencyCount(); i++)
+			{
+				Adjacency adjacency = entry.getAdjacency(i);
+				routes.add(entry.getDestinationAddress(),
+						adjacency.getNextHopAddress(), entry.getMaskAddress(),
+						routes.interfaceIndex(adjacency.getInterfaceName()),
+						entry.getCost());
+			}
+		}
+
+		// Lay out the file in memory
+		List<String> names = routes.getInterfaceNames();
+		int namesSize = 0;
+		for (String name : names)
+		{
+			if (name.length() > 0xFF)
+			{
+				System.err.println("Unable to write route table snapshot: "
+						+ "interface name too long");
+				return false;
+			}
+			namesSize += 1 + name.length();
+		}
+		namesSize = (namesSize + 3) & ~3;
+		int count = routes.size();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + namesSize
+				+ 5 * 4 * count);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(count);
+		buffer.putInt(names.size());
+		for (String name : names)
+		{
+			byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+			buffer.put((byte)bytes.length);
+			buffer.put(bytes);
+		}
+		buffer.position(HEADER_SIZE + namesSize);
+		IntBuffer ints = buffer.asIntBuffer();
+		for (int i = 0; i < count; i++)
+		{ ints.put(routes.getDestinationAddress(i)); }
+		for (int i = 0; i < count; i++)
+		{ ints.put(routes.getMaskAddress(i)); }
+		for (int i = 0; i < count; i++)
+		{ ints.put(routes.getGatewayAddress(i)); }
+		for (int i = 0; i < count; i++)
+		{ ints.put(routes.getCost(i)); }
+		for (int i = 0; i < count; i++)
+		{ ints.put(routes.getInterfaceIndex(i)); }
+		buffer.rewind();
+
+		// Write the file
+		File target = new File(filename);
+		File temp = new File(filename + ".tmp");
+		RandomAccessFile file = null;
+		try
+		{
+			file = new RandomAccessFile(temp, "rw");
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			while (buffer.hasRemaining())
+			{ channel.write(buffer); }
+			file.close();
+			file = null;
+			Files.move(temp.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+		catch (IOException e)
+		{
+			System.err.println("Unable to write route table snapshot: "
+					+ e.toString());
+			return false;
+		}
+		finally
+		{
+			if (file != null)
+			{ try { file.close(); } catch (IOException f) {}; }
+		}
+	}
+
+	/**
+	 * Read the routes in a route table snapshot. The file is memory-mapped,
+	 * and each column of routes is copied out in bulk.
+	 * @param filename name of the file
+	 * @return the routes, in the order they were written; null if the file
+	 *         could not be read or is not a valid snapshot
+	 */
+	public static PackedRoutes load(String filename)
+	{
+		RandomAccessFile file = null;
+		try
+		{
+			file = new RandomAccessFile(filename, "r");
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+			{ return invalid(filename, "bad size"); }
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, size);
+
+			if (buffer.getInt() != MAGIC)
+			{ return invalid(filename, "bad magic number"); }
+			int version = buffer.getInt();
+			if (version != VERSION)
+			{ return invalid(filename, "unsupported version " + version); }
+			int count = buffer.getInt();
+			int nameCount = buffer.getInt();
+			if (count < 0 || nameCount < 0)
+			{ return invalid(filename, "bad header"); }
+
+			List<String> names = new ArrayList<String>(nameCount);
+			for (int i = 0; i < nameCount; i++)
+			{
+				if (!buffer.hasRemaining())
+				{ return invalid(filename, "truncated"); }
+				byte[] bytes = new byte[buffer.get() & 0xFF];
+				if (buffer.remaining() < bytes.length)
+				{ return invalid(filename, "truncated"); }
+				buffer.get(bytes);
+				names.add(new String(bytes, StandardCharsets.US_ASCII));
+			}
+			int routesStart = (buffer.position() + 3) & ~3;
+			if (routesStart > buffer.limit())
+			{ return invalid(filename, "truncated"); }
+			buffer.position(routesStart);
+			if (buffer.remaining() != 5L * 4 * count)
+			{ return invalid(filename, "truncated"); }
+
+			IntBuffer ints = buffer.asIntBuffer();
+			int[] destinations = new int[count];
+			int[] masks = new int[count];
+			int[] gateways = new int[count];
+			int[] costs = new int[count];
+			int[] interfaces = new int[count];
+			ints.get(destinations);
+			ints.get(masks);
+			ints.get(gateways);
+			ints.get(costs);
+			ints.get(interfaces);
+			for (int i = 0; i < count; i++)
+			{
+				if (interfaces[i] < 0 || interfaces[i] >= nameCount)
+				{ return invalid(filename, "bad interface index"); }
+			}
+			return new PackedRoutes(count, destinations, gateways, masks,
+					costs, interfaces, names);
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.toString());
+			return null;
+		}
+		finally
+		{
+			if (file != null)
+			{ try { file.close(); } catch (IOException f) {}; }
+		}
+	}
+
+	private static PackedRoutes invalid(String filename, String reason)
+	{
+		System.err.println("Invalid route table snapshot " + filename + ": "
+				+ reason);
+		return null;
+	}
+}
@@ -1,129 +1,558 @@
 package edu.wisc.cs.sdn.sr;
 
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import net.floodlightcontroller.packet.RIPv2Entry;
 
 /**
  * Route table for a router.
+ *
+ * The contents of the table are published as immutable, versioned 
+ * snapshots. Readers (e.g., the forwarding path) never lock; they simply
+ * read the current snapshot. Writers make a batch of changes through an
+ * {@link Update}, which publishes a single new snapshot when committed.
  * @author Aaron Gember-Jacobson
  */
 public class RouteTable 
 {
-	/** Entries in the route table */
-	private List<RouteTableEntry> entries; 
-	
-	/**
-	 * Initialize an empty route table.
-	 */
-	public RouteTable()
-	{ this.entries = new LinkedList<RouteTableEntry>(); }
+	/** Ways in which the route table can be searched for a longest prefix 
+	 * match */
+	public enum LookupMode
+	{
+		/** Walk the trie that indexes the route table */
+		TRIE,
+		/** Read a DIR-24-8 forwarding table compiled from the route table */
+		DIR_24_8
+	}
 	
 	/**
-	 * @return entries in the route table
+	 * An immutable view of the entries in the route table at a point in time.
 	 */
-	public List<RouteTableEntry> getEntries()
-	{ return this.entries; }
+	public static class Snapshot
+	{
+		/** Number of times the entries had changed when the snapshot was 
+		 * taken */
+		private final long generation;
+		
+		/** Index of the entries, for longest prefix match lookups */
+		private final RouteTrie trie;
+		
+		/** Forwarding table compiled from the entries; null if the lookup
+		 * mode does not use one */
+		private final ForwardingTable forwardingTable;
+		
+		/** Entries in prefix order; built the first time they are needed */
+		private volatile List<RouteTableEntry> entries;
+		
+		private Snapshot(long generation, RouteTrie trie, 
+				ForwardingTable forwardingTable)
+		{
+			this.generation = generation;
+			this.trie = trie;
+			this.forwardingTable = forwardingTable;
+			this.entries = null;
+		}
+		
+		/**
+		 * @return number of times the entries in the route table had changed
+		 *         when the snapshot was taken
+		 */
+		public long getGeneration()
+		{ return this.generation; }
+		
+		/**
+		 * @return forwarding table compiled from the entries; null if the 
+		 *         lookup mode does not use one
+		 */
+		public ForwardingTable getForwardingTable()
+		{ return this.forwardingTable; }
+		
+		/**
+		 * @return number of entries
+		 */
+		public int size()
+		{ return this.trie.size(); }
+		
+		/**
+		 * @return unmodifiable list of the entries, in prefix order
+		 */
+		public List<RouteTableEntry> getEntries()
+		{
+			List<RouteTableEntry> entries = this.entries;
+			if (null == entries)
+			{
+				entries = new ArrayList<RouteTableEntry>(this.trie.size());
+				this.trie.collect(entries);
+				entries = Collections.unmodifiableList(entries);
+				this.entries = entries;
+			}
+			return entries;
+		}
+		
+		/**
+		 * Find an entry.
+		 * @param dstIp destination IP of the entry to find
+		 * @param maskIp subnet mask of the entry to find
+		 * @return a matching entry if one was found, otherwise null
+		 */
+		public RouteTableEntry findEntry(int dstIp, int maskIp)
+		{ return this.trie.find(dstIp, maskIp); }
+		
+		/**
+		 * Find the entry whose destination is the longest prefix match for an
+		 * IP address.
+		 * @param dstIp destination IP address to match
+		 * @return the best matching entry if one was found, otherwise null
+		 */
+		public RouteTableEntry lookup(int dstIp)
+		{
+			if (this.forwardingTable != null)
+			{ return this.forwardingTable.lookup(dstIp); }
+			return this.trie.lookup(dstIp);
+		}
+	}
 	
 	/**
-	 * Populate the route table from a file.
-	 * @param filename name of the file containing the static route table
-	 * @return true if route table was successfully loaded, otherwise false
+	 * A batch of changes to the route table. Only one update can be in 
+	 * progress at a time; the changes become visible to readers, all at once,
+	 * when the update is committed.
 	 */
-	public boolean load(String filename)
+	public class Update
 	{
-		// Open the file
-		BufferedReader reader;
-		try 
+		/** Entries in the route table, including the changes made so far */
+		private RouteTrie trie;
+		
+		/** Whether any changes have been made */
+		private boolean changed;
+		
+		private Update(RouteTrie trie)
 		{
-			FileReader fileReader = new FileReader(filename);
-			reader = new BufferedReader(fileReader);
+			this.trie = trie;
+			this.changed = false;
 		}
-		catch (FileNotFoundException e) 
+		
+		/**
+		 * Remove all entries.
+		 */
+		public void clear()
 		{
-			System.err.println(e.toString());
-			return false;
+			this.trie = RouteTrie.EMPTY;
+			this.changed = true;
 		}
 		
-		boolean clearRoutingTable = true;
-		while (true)
+		/**
+		 * Replace all entries with a list of routes, building the new 
+		 * entries in a single pass. If several routes have the same 
+		 * destination and mask, the last one is kept, unless they are
+		 * consecutive and paths are being merged.
+		 * @param routes routes to add
+		 * @param mergePaths whether consecutive routes through a gateway with
+		 *        the same destination and mask should become equal-cost next
+		 *        hops of a single entry
+		 */
+		public void replaceAll(PackedRoutes routes, boolean mergePaths)
 		{
-			// Read a route entry from the file
-			String line = null;
-			try 
-			{ line = reader.readLine(); }
-			catch (IOException e) 
+			RouteTableEntry[] entries = new RouteTableEntry[routes.size()];
+			int count = 0;
+			for (int i = 0; i < routes.size(); i++)
 			{
-				System.err.println(e.toString());
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				int dstIp = routes.getDestinationAddress(i);
+				int gwIp = routes.getGatewayAddress(i);
+				int maskIp = routes.getMaskAddress(i);
+				String iface = routes.getInterface(i);
+				Adjacency adjacency = (0 == gwIp ? null 
+						: adjacencies.get(iface, gwIp));
+				RouteTableEntry previous = (0 == count ? null 
+						: entries[count - 1]);
+				if (mergePaths && adjacency != null && previous != null
+						&& previous.getAdjacency() != null
+						&& previous.getDestinationAddress() == dstIp
+						&& previous.getMaskAddress() == maskIp)
+				{
+					if (!previous.refreshAdjacency(adjacency, 0))
+					{ entries[count - 1] = previous.withAdjacency(adjacency, 0); }
+					continue;
+				}
+				entries[count++] = new RouteTableEntry(dstIp, gwIp, maskIp, 
+						iface, adjacencies.interfaceIndex(iface), 
+						routes.getCost(i), 0, adjacency);
 			}
-			
-			// Stop if we have reached the end of the file
-			if (null == line)
-			{ break; }
-			
-			// Parse fields for route entry
-			String ipPattern = "(\\d+\\.\\d+\\.\\d+\\.\\d+)";
-			String ifacePattern = "([a-zA-Z0-9]+)";
-			Pattern pattern = Pattern.compile(String.format(
-                        "%s\\s+%s\\s+%s\\s+%s", 
-                        ipPattern, ipPattern, ipPattern, ifacePattern));
-			Matcher matcher = pattern.matcher(line);
-			if (!matcher.matches() || matcher.groupCount() != 4)
-			{
-				System.err.println("Invalid entry in routing table file");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
-			}
-
-			int dstIp = Util.dottedDecimalToInt(matcher.group(1));
-			if (0 == dstIp)
+			this.trie = RouteTrie.build(Arrays.copyOf(entries, count));
+			this.changed = true;
+		}
+		
+		/**
+		 * Add routes through a gateway from a list of routes, as if each had
+		 * just been advertised. Routes for a destination and mask that 
+		 * already has a cheaper or directly connected entry are ignored, and 
+		 * routes with the same cost as an existing entry become additional 
+		 * equal-cost next hops.
+		 * @param routes routes to add
+		 * @param time time (in milliseconds since the epoch) to use as the 
+		 *        time the routes were last advertised
+		 * @param interfaceNames names of the router's interfaces; routes out
+		 *        any other interface are ignored
+		 * @return number of routes added
+		 */
+		public int restore(PackedRoutes routes, long time, 
+				Set<String> interfaceNames)
+		{
+			int added = 0;
+			for (int i = 0; i < routes.size(); i++)
 			{
-				System.err.println("Error loading routing table, cannot convert " + matcher.group(1) + " to valid IP");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				int dstIp = routes.getDestinationAddress(i);
+				int gwIp = routes.getGatewayAddress(i);
+				int maskIp = routes.getMaskAddress(i);
+				String iface = routes.getInterface(i);
+				int cost = routes.getCost(i);
+				if (0 == gwIp || !interfaceNames.contains(iface))
+				{ continue; }
+				RouteTableEntry entry = this.trie.find(dstIp, maskIp);
+				if (null == entry || (entry.getAdjacency() != null
+						&& cost < entry.getCost()))
+				{
+					this.addEntry(dstIp, gwIp, maskIp, iface, cost, time);
+					added++;
+				}
+				else if (entry.getCost() == cost 
+						&& this.addPath(dstIp, maskIp, gwIp, iface, time))
+				{ added++; }
 			}
-			
-			int gwIp = Util.dottedDecimalToInt(matcher.group(2));
-			
-			int maskIp = Util.dottedDecimalToInt(matcher.group(3));
-			if (0 == maskIp)
+			return added;
+		}
+		
+		/**
+		 * Add an entry, replacing any entry with the same destination and 
+		 * mask.
+		 * @param dstIp destination IP
+		 * @param gwIp gateway IP
+		 * @param maskIp subnet mask
+		 * @param iface router interface out which to send packets to reach 
+		 *        the destination or gateway
+		 */
+		public void addEntry(int dstIp, int gwIp, int maskIp, String iface)
+		{ this.addEntry(dstIp, gwIp, maskIp, iface, 0, 0); }
+		
+		/**
+		 * Add an entry, replacing any entry with the same destination and 
+		 * mask.
+		 * @param dstIp destination IP
+		 * @param gwIp gateway IP
+		 * @param maskIp subnet mask
+		 * @param iface router interface out which to send packets to reach 
+		 *        the destination or gateway
+		 * @param cost number of hops to the destination
+		 */
+		public void addEntry(int dstIp, int gwIp, int maskIp, String iface, 
+				int cost)
+		{ this.addEntry(dstIp, gwIp, maskIp, iface, cost, System.currentTimeMillis()); }
+		
+		private void addEntry(int dstIp, int gwIp, int maskIp, String iface,
+				int cost, long time)
+		{
+			Adjacency adjacency = null;
+			if (gwIp != 0)
+			{ adjacency = adjacencies.get(iface, gwIp); }
+			this.trie = this.trie.insert(new RouteTableEntry(dstIp, gwIp, 
+					maskIp, iface, adjacencies.interfaceIndex(iface), cost, 
+					time, adjacency));
+			this.changed = true;
+		}
+		
+		/**
+		 * Remove an entry.
+		 * @param dstIp destination IP of the entry to remove
+		 * @param maskIp subnet mask of the entry to remove
+		 * @return true if a matching entry was found and removed, otherwise 
+		 *         false
+		 */
+		public boolean removeEntry(int dstIp, int maskIp)
+		{
+			RouteTrie trie = this.trie.remove(dstIp, maskIp);
+			if (trie == this.trie)
+			{ return false; }
+			this.trie = trie;
+			this.changed = true;
+			return true;
+		}
+		
+		/**
+		 * Replace the gateway, interface, cost, and time of an entry.
+		 * @param dstIp destination IP of the entry to update
+		 * @param maskIp subnet mask of the entry to update
+		 * @param gwIp new gateway IP address for matching entry
+		 * @param ifaceName new router interface name for matching entry
+		 * @param cost new number of hops to the destination
+		 * @param time new time (in milliseconds since the epoch) the entry 
+		 *        was last advertised
+		 * @return true if a matching entry was found and updated, otherwise
+		 *         false
+		 */
+		public boolean updateEntry(int dstIp, int maskIp, int gwIp, 
+				String ifaceName, int cost, long time)
+		{
+			RouteTableEntry entry = this.trie.find(dstIp, maskIp);
+			if (null == entry)
+			{ return false; }
+			this.addEntry(entry.getDestinationAddress(), gwIp, 
+					entry.getMaskAddress(), ifaceName, cost, time);
+			return true;
+		}
+		
+		/**
+		 * Add an equal-cost next hop to an entry that has a gateway, or 
+		 * refresh the time of a next hop the entry already has. Refreshing a
+		 * next hop updates the entry in place, and does not by itself cause
+		 * a new snapshot to be published when the update is committed.
+		 * @param dstIp destination IP of the entry
+		 * @param maskIp subnet mask of the entry
+		 * @param gwIp IP address of the next hop
+		 * @param ifaceName router interface out which the next hop is reached
+		 * @param time time (in milliseconds since the epoch) the next hop was
+		 *        advertised
+		 * @return true if a matching entry with a gateway was found, 
+		 *         otherwise false
+		 */
+		public boolean addPath(int dstIp, int maskIp, int gwIp, 
+				String ifaceName, long time)
+		{
+			RouteTableEntry entry = this.trie.find(dstIp, maskIp);
+			if (null == entry || null == entry.getAdjacency() || 0 == gwIp)
+			{ return false; }
+			Adjacency adjacency = adjacencies.get(ifaceName, gwIp);
+			if (entry.refreshAdjacency(adjacency, time))
+			{ return true; }
+			this.trie = this.trie.insert(entry.withAdjacency(adjacency, time));
+			this.changed = true;
+			return true;
+		}
+		
+		/**
+		 * Remove one of the equal-cost next hops of an entry, removing the 
+		 * entry entirely if it has no other next hops.
+		 * @param dstIp destination IP of the entry
+		 * @param maskIp subnet mask of the entry
+		 * @param adjacency the next hop to remove
+		 * @return true if the entry had the next hop, otherwise false
+		 */
+		public boolean removePath(int dstIp, int maskIp, Adjacency adjacency)
+		{
+			RouteTableEntry entry = this.trie.find(dstIp, maskIp);
+			if (null == entry)
+			{ return false; }
+			RouteTableEntry remaining = entry.withoutAdjacency(adjacency);
+			if (remaining == entry)
+			{ return false; }
+			if (null == remaining)
+			{ this.trie = this.trie.remove(dstIp, maskIp); }
+			else
+			{ this.trie = this.trie.insert(remaining); }
+			this.changed = true;
+			return true;
+		}
+		
+		/**
+		 * Find an entry, including changes made so far.
+		 * @param dstIp destination IP of the entry to find
+		 * @param maskIp subnet mask of the entry to find
+		 * @return a matching entry if one was found, otherwise null
+		 */
+		public RouteTableEntry findEntry(int dstIp, int maskIp)
+		{ return this.trie.find(dstIp, maskIp); }
+		
+		/**
+		 * Publish the changes as a new snapshot, and end the update.
+		 */
+		public void commit()
+		{
+			try
 			{
-				System.err.println("Error loading routing table, cannot convert " + matcher.group(3) + " to valid IP");
-				try { reader.close(); } catch (IOException f) {};
-				return false;
+				if (this.changed)
+				{ publish(this.trie, snapshot.get().getGeneration() + 1); }
 			}
-			
-			String iface = matcher.group(4).trim();
-			
-			
-			// If we successfully read the first entry from the file, then
-			// flush the current route table
-			if (clearRoutingTable)
+			finally
+			{ writeLock.unlock(); }
+		}
+		
+		/**
+		 * Discard the changes, and end the update.
+		 */
+		public void abort()
+		{ writeLock.unlock(); }
+	}
+	
+	/** Current contents of the route table */
+	private final AtomicReference<Snapshot> snapshot;
+	
+	/** Held by the thread, if any, with an update in progress */
+	private final ReentrantLock writeLock;
+	
+	/** How lookups are performed; only changed while holding the write lock */
+	private volatile LookupMode lookupMode;
+	
+	/** Next hops referenced by entries that have a gateway */
+	private final AdjacencyTable adjacencies;
+	
+	/** Whether to report each forwarding table that is compiled */
+	private volatile boolean verbose;
+	
+	/**
+	 * Initialize an empty route table.
+	 * @param adjacencies next hops to be referenced by entries that have a 
+	 *        gateway
+	 */
+	public RouteTable(AdjacencyTable adjacencies)
+	{ 
+		this.adjacencies = adjacencies;
+		this.snapshot = new AtomicReference<Snapshot>(
+				new Snapshot(0, RouteTrie.EMPTY, null));
+		this.writeLock = new ReentrantLock();
+		this.lookupMode = LookupMode.TRIE;
+		this.verbose = false;
+	}
+	
+	/**
+	 * @return the current contents of the route table
+	 */
+	public Snapshot getSnapshot()
+	{ return this.snapshot.get(); }
+	
+	/**
+	 * @return number of times the entries in the route table have changed;
+	 *         caches derived from the route table can compare this to detect
+	 *         that they are stale
+	 */
+	public long getGeneration()
+	{ return this.snapshot.get().getGeneration(); }
+	
+	/**
+	 * @return unmodifiable list of the entries in the route table
+	 */
+	public List<RouteTableEntry> getEntries()
+	{ return this.snapshot.get().getEntries(); }
+	
+	/**
+	 * @return how lookups are performed
+	 */
+	public LookupMode getLookupMode()
+	{ return this.lookupMode; }
+	
+	/**
+	 * Change how lookups are performed. Selecting a mode that uses a compiled
+	 * forwarding table builds the table immediately.
+	 * @param lookupMode how lookups should be performed
+	 */
+	public void setLookupMode(LookupMode lookupMode)
+	{
+		this.writeLock.lock();
+		try
+		{
+			this.lookupMode = lookupMode;
+			Snapshot current = this.snapshot.get();
+			this.publish(current.trie, current.getGeneration());
+		}
+		finally
+		{ this.writeLock.unlock(); }
+	}
+	
+	/**
+	 * @param verbose whether to report the size and build time of every 
+	 *        forwarding table that is compiled, rather than leaving the 
+	 *        caller to report the first one
+	 */
+	public void setVerbose(boolean verbose)
+	{ this.verbose = verbose; }
+	
+	/**
+	 * @return the forwarding table compiled from the current entries; null if
+	 *         the lookup mode does not use one
+	 */
+	public ForwardingTable getForwardingTable()
+	{ return this.snapshot.get().getForwardingTable(); }
+	
+	/**
+	 * Start a batch of changes to the route table. The caller must end the 
+	 * update by calling {@link Update#commit()} or {@link Update#abort()}; 
+	 * other writers wait until then.
+	 * @return the update
+	 */
+	public Update beginUpdate()
+	{
+		this.writeLock.lock();
+		return new Update(this.snapshot.get().trie);
+	}
+	
+	/**
+	 * Publish a new snapshot of the route table, compiling a forwarding table
+	 * if the lookup mode uses one. Must be called while holding the write 
+	 * lock.
+	 * @param trie entries in the route table
+	 * @param generation generation number for the snapshot
+	 */
+	private void publish(RouteTrie trie, long generation)
+	{
+		ForwardingTable fib = null;
+		if (LookupMode.DIR_24_8 == this.lookupMode)
+		{
+			List<RouteTableEntry> entries = new ArrayList<RouteTableEntry>(
+					trie.size());
+			trie.collect(entries);
+			fib = ForwardingTable.build(entries);
+			if (null == fib)
 			{
-				System.out.println("Loading routing table from server, clear local routing table");
-				entries.clear();
-				clearRoutingTable = false;
+				System.err.println("Route table has too many routes for a "
+						+ "DIR-24-8 forwarding table, using trie lookups");
 			}
-			
-			// Add an entry to the route table
-			this.addEntry(dstIp, gwIp, maskIp, iface);
+			else if (this.verbose)
+			{ System.out.println(fib.toString()); }
 		}
+		this.snapshot.set(new Snapshot(generation, trie, fib));
+	}
 	
-		// Close the file
-		try { reader.close(); } catch (IOException f) {};
+	/**
+	 * Populate the route table from a file, which either lists the routes as
+	 * text or is a snapshot written by {@link #save(String)}.
+	 * @param filename name of the file containing the static route table
+	 * @return true if route table was successfully loaded, otherwise false
+	 */
+	public boolean load(String filename)
+	{
+		boolean snapshot = RouteSnapshotFile.isSnapshot(filename);
+		PackedRoutes routes = (snapshot ? RouteSnapshotFile.load(filename)
+				: RouteTableLoader.load(filename));
+		if (null == routes)
+		{ return false; }
+		
+		// If we successfully read entries from the file, then flush the 
+		// current route table
+		if (0 == routes.size())
+		{ return true; }
+		System.out.println("Loading routing table from server, clear local routing table");
+		Update update = this.beginUpdate();
+		try
+		{ update.replaceAll(routes, snapshot); }
+		finally
+		{ update.commit(); }
 		return true;
 	}
 	
+	/**
+	 * Write the current entries in the route table to a snapshot file, which
+	 * can be loaded much faster than a text file.
+	 * @param filename name of the file
+	 * @return true if the snapshot was written, otherwise false
+	 */
+	public boolean save(String filename)
+	{ return RouteSnapshotFile.save(this.getEntries(), filename); }
+	
 	/**
 	 * Add an entry to the route table.
 	 * @param dstIp destination IP
@@ -134,31 +563,28 @@ public class RouteTable
 	 */
 	public void addEntry(int dstIp, int gwIp, int maskIp, String iface)
 	{
-		RouteTableEntry entry = new RouteTableEntry(dstIp, gwIp, maskIp, iface);
-        synchronized(this.entries)
-        { 
-            this.entries.add(entry);
-        }
+		Update update = this.beginUpdate();
+		try
+		{ update.addEntry(dstIp, gwIp, maskIp, iface); }
+		finally
+		{ update.commit(); }
 	}
 	
 	// Add an entry to the route table : 6 parameters
 	public void addEntry(int dstIp, int gwIp, int maskIp, String iface, int cost) {
-		RouteTableEntry entry = new RouteTableEntry(dstIp, gwIp, maskIp, iface, cost, System.currentTimeMillis());
-        synchronized(this.entries)
-        { 
-            this.entries.add(entry);
-        }
+		Update update = this.beginUpdate();
+		try
+		{ update.addEntry(dstIp, gwIp, maskIp, iface, cost); }
+		finally
+		{ update.commit(); }
 	}
 	
 	public List<RIPv2Entry> getRIPv2Entries(){
 		List<RIPv2Entry> ripv2Entries = new LinkedList<RIPv2Entry>();
-		if(entries != null){
-			for(RouteTableEntry entry : entries){
-				ripv2Entries.add(entry.toRIPv2Entry());
-			}
-			return ripv2Entries;
-		}else
-			return null;
+		for(RouteTableEntry entry : this.getEntries()){
+			ripv2Entries.add(entry.toRIPv2Entry());
+		}
+		return ripv2Entries;
 	}
 	
 	/**
@@ -169,14 +595,11 @@ public class RouteTable
 	 */
 	public boolean removeEntry(int dstIp, int maskIp)
 	{ 
-        synchronized(this.entries)
-        {
-            RouteTableEntry entry = this.findEntry(dstIp, maskIp);
-            if (null == entry)
-            { return false; }
-            this.entries.remove(entry);
-        }
-        return true;
+		Update update = this.beginUpdate();
+		try
+		{ return update.removeEntry(dstIp, maskIp); }
+		finally
+		{ update.commit(); }
     }
 	
 	/**
@@ -190,30 +613,23 @@ public class RouteTable
 	public boolean updateEntry(int dstIp, int maskIp, int gwIp, 
             String ifaceName)
 	{
-        synchronized(this.entries)
-        {
-            RouteTableEntry entry = this.findEntry(dstIp, maskIp);
-            if (null == entry)
-            { return false; }
-            entry.setGatewayAddress(gwIp);
-            entry.setInterface(ifaceName);
-            entry.setTime(System.currentTimeMillis());
-        }
-        return true;
+		return this.updateEntry(dstIp, maskIp, gwIp, ifaceName, 
+				System.currentTimeMillis());
 	}
 	
 	public boolean updateEntry(int dstIp, int maskIp, int gwIp, 
             String ifaceName, long time){
-        synchronized(this.entries)
-        {
-            RouteTableEntry entry = this.findEntry(dstIp, maskIp);
-            if (null == entry)
-            { return false; }
-            entry.setGatewayAddress(gwIp);
-            entry.setInterface(ifaceName);
-            entry.setTime(time);
-        }
-        return true;
+		Update update = this.beginUpdate();
+		try
+		{
+			RouteTableEntry entry = update.findEntry(dstIp, maskIp);
+			if (null == entry)
+			{ return false; }
+			return update.updateEntry(dstIp, maskIp, gwIp, ifaceName, 
+					entry.getCost(), time);
+		}
+		finally
+		{ update.commit(); }
 	}
 	
 
@@ -224,18 +640,15 @@ public class RouteTable
      * @return a matching entry if one was found, otherwise null
 	 */
     public RouteTableEntry findEntry(int dstIp, int maskIp)
-    {
-        synchronized(this.entries)
-        {
-            for (RouteTableEntry entry : this.entries)
-            {
-                if ((entry.getDestinationAddress() == dstIp)
-                    && (entry.getMaskAddress() == maskIp)) 
-                { return entry; }
-            }
-        }
-        return null;
-    }
+    { return this.snapshot.get().findEntry(dstIp, maskIp); }
+
+    /**
+	 * Find the entry whose destination is the longest prefix match for an IP.
+	 * @param dstIp destination IP address to match
+     * @return the best matching entry if one was found, otherwise null
+	 */
+    public RouteTableEntry lookup(int dstIp)
+    { return this.snapshot.get().lookup(dstIp); }
 
 	/**
 	 * Verify the interface specified in entries in the route table refer to 
@@ -245,28 +658,24 @@ public class RouteTable
 	 */
 	public boolean verify(Map<String,Iface> interfaces)
 	{
-        synchronized(this.entries)
-        { 
-            for (RouteTableEntry entry : this.entries)
-            {
-                if (!interfaces.containsKey(entry.getInterface()))
-                { return false; }
-            }
-        }
+		for (RouteTableEntry entry : this.getEntries())
+		{
+			if (!interfaces.containsKey(entry.getInterface()))
+			{ return false; }
+		}
 		return true;
 	}
 	
 	public String toString()
 	{
-        synchronized(this.entries)
-        { 
-            if (0 == this.entries.size())
-            { return " * warning* Routing table empty"; }
-            
-            String result = "Destination\tGateway\t\tMask\t\tIface\n";
-            for (RouteTableEntry entry : entries)
-            { result += entry.toString()+"\n"; }
-		    return result;
-        }
+		List<RouteTableEntry> entries = this.getEntries();
+		if (0 == entries.size())
+		{ return " * warning* Routing table empty"; }
+		
+		StringBuilder result = new StringBuilder(
+				"Destination\tGateway\t\tMask\t\tIface\n");
+		for (RouteTableEntry entry : entries)
+		{ result.append(entry.toString()).append('\n'); }
+		return result.toString();
 	}
 }
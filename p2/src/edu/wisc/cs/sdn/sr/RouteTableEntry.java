@@ -1,29 +1,52 @@
 package edu.wisc.cs.sdn.sr;
 
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 import net.floodlightcontroller.packet.RIPv2Entry;
 
 /**
- * An entry in a route table.
+ * An entry in a route table. Entries are immutable, except for the times 
+ * their next hops were last advertised; changing a route means replacing its
+ * entry.
  * @author Aaron Gember-Jacobson and Anubhavnidhi Abhashkumar
  */
 public class RouteTableEntry 
 {
 	/** Destination IP address */
-	private int destinationAddress;
+	private final int destinationAddress;
 	
 	/** Gateway IP address */
-	private int gatewayAddress;
+	private final int gatewayAddress;
 	
 	/** Subnet mask */
-	private int maskAddress;
+	private final int maskAddress;
 	
 	/** Name of the router interface out which packets should be sent to reach
 	 * the destination or gateway */
-	private String interfaceName;
+	private final String interfaceName;
+	
+	/** Index of the router interface out which packets should be sent */
+	private final int interfaceIndex;
+	
+	private final int cost;
+	
+	/** Time (in milliseconds since the epoch) the route was last advertised;
+	 * only used if the destination is directly connected */
+	private final long time;
+	
+	/** Equal-cost next hops, the first of which is the gateway; empty if the 
+	 * destination is directly connected (i.e., there is no gateway). Each is
+	 * shared by all routes through the same neighbor. */
+	private final Adjacency[] adjacencies;
 	
-	private int cost;
+	/** Time (in milliseconds since the epoch) each next hop was last 
+	 * advertised. Refreshing a next hop does not change the route, so the 
+	 * times are updated in place rather than by replacing the entry. */
+	private final AtomicLongArray adjacencyTimes;
 	
-	private long time;
+	/** Next hops for a directly connected destination */
+	private static final Adjacency[] NO_ADJACENCIES = new Adjacency[0];
 	
 	/**
 	 * Create a new route table entry.
@@ -32,48 +55,155 @@ public class RouteTableEntry
 	 * @param maskAddress subnet mask
 	 * @param ifaceName name of the router interface out which packets should 
 	 *        be sent to reach the destination or gateway
+	 * @param ifaceIndex index of the router interface out which packets 
+	 *        should be sent
+	 * @param cost number of hops to the destination
+	 * @param time time (in milliseconds since the epoch) the route was last
+	 *        advertised
+	 * @param adjacency next hop for the gateway; null if the destination is
+	 *        directly connected
 	 */
 	public RouteTableEntry(int destinationAddress, int gatewayAddress, 
-			int maskAddress, String ifaceName)
+			int maskAddress, String ifaceName, int ifaceIndex, int cost, 
+			long time, Adjacency adjacency)
 	{
 		this.destinationAddress = destinationAddress;
 		this.gatewayAddress = gatewayAddress;
 		this.maskAddress = maskAddress;
 		this.interfaceName = ifaceName;
-	}
-	
-	public RouteTableEntry(int destinationAddress, int gatewayAddress, 
-			int maskAddress, String ifaceName, int cost, long time){
-		this.destinationAddress = destinationAddress;
-		this.gatewayAddress = gatewayAddress;
-		this.maskAddress = maskAddress;
-		this.interfaceName = ifaceName;
+		this.interfaceIndex = ifaceIndex;
 		this.cost = cost;
 		this.time = time;
+		if (null == adjacency)
+		{
+			this.adjacencies = NO_ADJACENCIES;
+			this.adjacencyTimes = new AtomicLongArray(0);
+		}
+		else
+		{
+			this.adjacencies = new Adjacency[] { adjacency };
+			this.adjacencyTimes = new AtomicLongArray(new long[] { time });
+		}
+	}
+	
+	/**
+	 * Create a route table entry with a set of equal-cost next hops.
+	 * @param original entry whose destination, mask, and cost are used
+	 * @param adjacencies equal-cost next hops; must not be empty
+	 * @param adjacencyTimes time each next hop was last advertised
+	 */
+	private RouteTableEntry(RouteTableEntry original, Adjacency[] adjacencies,
+			long[] adjacencyTimes)
+	{
+		this.destinationAddress = original.destinationAddress;
+		this.gatewayAddress = adjacencies[0].getNextHopAddress();
+		this.maskAddress = original.maskAddress;
+		this.interfaceName = adjacencies[0].getInterfaceName();
+		this.interfaceIndex = adjacencies[0].getInterfaceIndex();
+		this.cost = original.cost;
+		this.time = 0;
+		this.adjacencies = adjacencies;
+		this.adjacencyTimes = new AtomicLongArray(adjacencyTimes);
+	}
+	
+	/**
+	 * Create a copy of this entry that includes an additional equal-cost 
+	 * next hop. 
+	 * @param adjacency the next hop; must not already be one of the entry's
+	 *        next hops
+	 * @param time time (in milliseconds since the epoch) the next hop was
+	 *        advertised
+	 * @return the new entry
+	 */
+	public RouteTableEntry withAdjacency(Adjacency adjacency, long time)
+	{
+		int count = this.adjacencies.length;
+		Adjacency[] adjacencies = Arrays.copyOf(this.adjacencies, count + 1);
+		adjacencies[count] = adjacency;
+		long[] adjacencyTimes = new long[count + 1];
+		for (int i = 0; i < count; i++)
+		{ adjacencyTimes[i] = this.adjacencyTimes.get(i); }
+		adjacencyTimes[count] = time;
+		return new RouteTableEntry(this, adjacencies, adjacencyTimes);
+	}
+	
+	/**
+	 * Record that one of the entry's next hops was advertised again, without
+	 * replacing the entry.
+	 * @param adjacency the next hop
+	 * @param time time (in milliseconds since the epoch) the next hop was
+	 *        advertised
+	 * @return true if the next hop is one of the entry's, otherwise false
+	 */
+	public boolean refreshAdjacency(Adjacency adjacency, long time)
+	{
+		int index = this.indexOf(adjacency);
+		if (index < 0)
+		{ return false; }
+		this.adjacencyTimes.set(index, time);
+		return true;
+	}
+	
+	/**
+	 * Create a copy of this entry without one of its next hops.
+	 * @param adjacency the next hop to remove
+	 * @return the new entry; null if the next hop is the entry's only one
+	 */
+	public RouteTableEntry withoutAdjacency(Adjacency adjacency)
+	{
+		int index = this.indexOf(adjacency);
+		if (index < 0)
+		{ return this; }
+		if (this.adjacencies.length <= 1)
+		{ return null; }
+		
+		int remaining = this.adjacencies.length - 1;
+		Adjacency[] adjacencies = new Adjacency[remaining];
+		long[] adjacencyTimes = new long[remaining];
+		for (int i = 0, j = 0; i < this.adjacencies.length; i++)
+		{
+			if (i == index)
+			{ continue; }
+			adjacencies[j] = this.adjacencies[i];
+			adjacencyTimes[j] = this.adjacencyTimes.get(i);
+			j++;
+		}
+		return new RouteTableEntry(this, adjacencies, adjacencyTimes);
+	}
+	
+	private int indexOf(Adjacency adjacency)
+	{
+		for (int i = 0; i < this.adjacencies.length; i++)
+		{
+			if (this.adjacencies[i] == adjacency)
+			{ return i; }
+		}
+		return -1;
 	}
 	
 	public RIPv2Entry toRIPv2Entry(){
 		RIPv2Entry ripv2Entry = new RIPv2Entry(destinationAddress, maskAddress, cost);
-		ripv2Entry.setInterfaceName(interfaceName);
+		ripv2Entry.setInterfaceIndex(interfaceIndex);
 		return ripv2Entry;
 	}
 	
+	/**
+	 * @return time (in milliseconds since the epoch) the route was last 
+	 *         advertised, through any of its next hops
+	 */
 	public long getTime() {
+		if (0 == this.adjacencies.length)
+			return this.time;
+		long time = 0;
+		for (int i = 0; i < this.adjacencyTimes.length(); i++)
+			time = Math.max(time, this.adjacencyTimes.get(i));
 		return time;
 	}
-
-	public void setTime(long time) {
-		this.time = time;
-	}
 	
 	public int getCost() {
 		return cost;
 	}
 
-	public void setCost(int cost) {
-		this.cost = cost;
-	}
-
 	/**
 	 * @return destination IP address
 	 */
@@ -85,9 +215,6 @@ public class RouteTableEntry
 	 */
 	public int getGatewayAddress()
 	{ return this.gatewayAddress; }
-
-    public void setGatewayAddress(int gatewayAddress)
-    { this.gatewayAddress = gatewayAddress; }
 	
 	/**
 	 * @return subnet mask 
@@ -101,9 +228,62 @@ public class RouteTableEntry
 	 */
 	public String getInterface()
 	{ return this.interfaceName; }
-
-    public void setInterface(String interfaceName)
-    { this.interfaceName = interfaceName; }
+	
+	/**
+	 * @return index of the router interface out which packets should be sent
+	 *         to reach the destination or gateway
+	 */
+	public int getInterfaceIndex()
+	{ return this.interfaceIndex; }
+	
+	/**
+	 * @return next hop for the gateway; null if the destination is directly
+	 *         connected
+	 */
+	public Adjacency getAdjacency()
+	{ return (0 == this.adjacencies.length ? null : this.adjacencies[0]); }
+	
+	/**
+	 * @return number of equal-cost next hops; 0 if the destination is 
+	 *         directly connected
+	 */
+	public int getAdjacencyCount()
+	{ return this.adjacencies.length; }
+	
+	/**
+	 * @param index which next hop to get
+	 * @return one of the equal-cost next hops
+	 */
+	public Adjacency getAdjacency(int index)
+	{ return this.adjacencies[index]; }
+	
+	/**
+	 * @param index which next hop to get the time for
+	 * @return time (in milliseconds since the epoch) the next hop was last
+	 *         advertised
+	 */
+	public long getAdjacencyTime(int index)
+	{ return this.adjacencyTimes.get(index); }
+	
+	/**
+	 * Choose one of the equal-cost next hops for a flow.
+	 * @param flowHash hash of the flow's addresses, protocol, and ports
+	 * @return the next hop for the flow; null if the destination is directly 
+	 *         connected
+	 */
+	public Adjacency selectAdjacency(int flowHash)
+	{
+		switch (this.adjacencies.length)
+		{
+		case 0:
+			return null;
+		case 1:
+			return this.adjacencies[0];
+		default:
+			return this.adjacencies[(flowHash & 0x7FFFFFFF) 
+			                        % this.adjacencies.length];
+		}
+	}
 	
 	public String toString()
 	{
@@ -115,6 +295,12 @@ public class RouteTableEntry
         { result += "\t"; }
 		result += Util.intToDottedDecimal(maskAddress) + "\t";
 		result += interfaceName;
+		for (int i = 1; i < this.adjacencies.length; i++)
+		{
+			result += "\n\t\t" + Util.intToDottedDecimal(
+					this.adjacencies[i].getNextHopAddress()) + "\t\t\t\t"
+					+ this.adjacencies[i].getInterfaceName();
+		}
 		return result;
 	}
 }
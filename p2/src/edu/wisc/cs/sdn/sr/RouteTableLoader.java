@@ -0,0 +1,304 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a static route table file. Each line of the file contains a
+ * destination, gateway, and mask (in dotted decimal format) and an interface
+ * name, separated by whitespace. The file is memory-mapped and split into
+ * chunks at line boundaries, and large files are parsed by several threads
+ * at once.
+ */
+public class RouteTableLoader
+{
+	/** Smallest chunk of a file worth parsing on its own thread */
+	private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * Thrown when a line of a route table file is malformed.
+	 */
+	private static class ParseException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+
+		ParseException(String message)
+		{ super(message); }
+	}
+
+	/**
+	 * Parses the lines within one chunk of a file.
+	 */
+	private static class ChunkParser implements Callable<PackedRoutes>
+	{
+		private final MappedByteBuffer buffer;
+		private final int start;
+		private final int end;
+		private int position;
+
+		ChunkParser(MappedByteBuffer buffer, int start, int end)
+		{
+			this.buffer = buffer;
+			this.start = start;
+			this.end = end;
+		}
+
+		public PackedRoutes call() throws ParseException
+		{
+			PackedRoutes routes = new PackedRoutes((this.end - this.start) / 40);
+			String lastIface = null;
+			int lastIfaceIndex = -1;
+			this.position = this.start;
+			while (this.position < this.end)
+			{
+				int lineStart = this.position;
+				this.skipSpace();
+				if (this.atEndOfLine())
+				{
+					this.skipEndOfLine();
+					continue;
+				}
+
+				int dstIp = this.parseIp(lineStart);
+				this.skipRequiredSpace(lineStart);
+				int gwIp = this.parseIp(lineStart);
+				this.skipRequiredSpace(lineStart);
+				int maskIp = this.parseIp(lineStart);
+				this.skipRequiredSpace(lineStart);
+
+				// Interface names are usually repeated on consecutive lines, so
+				// only look up the index when the name changes
+				int ifaceStart = this.position;
+				while (this.position < this.end
+						&& isIfaceChar(this.buffer.get(this.position)))
+				{ this.position++; }
+				if (ifaceStart == this.position)
+				{ throw this.invalid(lineStart); }
+				if (null == lastIface || !this.matches(lastIface, ifaceStart))
+				{
+					lastIface = this.string(ifaceStart, this.position);
+					lastIfaceIndex = routes.interfaceIndex(lastIface);
+				}
+
+				this.skipSpace();
+				if (!this.atEndOfLine())
+				{ throw this.invalid(lineStart); }
+				this.skipEndOfLine();
+
+				routes.add(dstIp, gwIp, maskIp, lastIfaceIndex, 0);
+			}
+			return routes;
+		}
+
+		private int parseIp(int lineStart) throws ParseException
+		{
+			int ip = 0;
+			for (int octet = 0; octet < 4; octet++)
+			{
+				if (octet > 0)
+				{
+					if (this.position >= this.end
+							|| this.buffer.get(this.position) != '.')
+					{ throw this.invalid(lineStart); }
+					this.position++;
+				}
+				int value = 0;
+				int digits = 0;
+				while (this.position < this.end && digits < 4)
+				{
+					byte b = this.buffer.get(this.position);
+					if (b < '0' || b > '9')
+					{ break; }
+					value = value * 10 + (b - '0');
+					digits++;
+					this.position++;
+				}
+				if (0 == digits || digits > 3 || value > 255)
+				{ throw this.invalid(lineStart); }
+				ip = (ip << 8) | value;
+			}
+			return ip;
+		}
+
+		private void skipSpace()
+		{
+			while (this.position < this.end)
+			{
+				byte b = this.buffer.get(this.position);
+				if (b != ' ' && b != '\t')
+				{ break; }
+				this.position++;
+			}
+		}
+
+		private void skipRequiredSpace(int lineStart) throws ParseException
+		{
+			int before = this.position;
+			this.skipSpace();
+			if (before == this.position)
+			{ throw this.invalid(lineStart); }
+		}
+
+		private boolean atEndOfLine()
+		{
+			if (this.position >= this.end)
+			{ return true; }
+			byte b = this.buffer.get(this.position);
+			return (b == '\n' || b == '\r');
+		}
+
+		private void skipEndOfLine()
+		{
+			while (this.position < this.end)
+			{
+				byte b = this.buffer.get(this.position++);
+				if (b == '\n')
+				{ break; }
+			}
+		}
+
+		private boolean matches(String s, int from)
+		{
+			if (this.position - from != s.length())
+			{ return false; }
+			for (int i = 0; i < s.length(); i++)
+			{
+				if (this.buffer.get(from + i) != s.charAt(i))
+				{ return false; }
+			}
+			return true;
+		}
+
+		private String string(int from, int to)
+		{
+			byte[] bytes = new byte[to - from];
+			for (int i = 0; i < bytes.length; i++)
+			{ bytes[i] = this.buffer.get(from + i); }
+			return new String(bytes, StandardCharsets.US_ASCII);
+		}
+
+		private ParseException invalid(int lineStart)
+		{
+			int lineEnd = lineStart;
+			while (lineEnd < this.end && this.buffer.get(lineEnd) != '\n'
+					&& this.buffer.get(lineEnd) != '\r')
+			{ lineEnd++; }
+			return new ParseException("Invalid entry in routing table file: "
+					+ this.string(lineStart, lineEnd));
+		}
+	}
+
+	private static boolean isIfaceChar(byte b)
+	{
+		return ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9'));
+	}
+
+	/**
+	 * Read the routes in a static route table file.
+	 * @param filename name of the file containing the static route table
+	 * @return the routes, in the order they appear in the file; null if the
+	 *         file could not be read or contains an invalid entry
+	 */
+	public static PackedRoutes load(String filename)
+	{
+		RandomAccessFile file = null;
+		try
+		{
+			file = new RandomAccessFile(filename, "r");
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				System.err.println("Routing table file is too large");
+				return null;
+			}
+			int size = (int)channel.size();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, size);
+
+			// Split the file into chunks that end at line boundaries
+			int chunkCount = Math.max(1, Math.min(
+					Runtime.getRuntime().availableProcessors(),
+					size / MIN_CHUNK_SIZE));
+			List<ChunkParser> chunks = new ArrayList<ChunkParser>(chunkCount);
+			int start = 0;
+			for (int i = 1; i <= chunkCount && start < size; i++)
+			{
+				int end = (i == chunkCount ? size
+						: Math.max(start, (int)((long)size * i / chunkCount)));
+				while (end < size && buffer.get(end - 1) != '\n')
+				{ end++; }
+				chunks.add(new ChunkParser(buffer, start, end));
+				start = end;
+			}
+
+			PackedRoutes routes;
+			if (chunks.size() <= 1)
+			{
+				routes = (chunks.isEmpty() ? new PackedRoutes(0)
+						: chunks.get(0).call());
+			}
+			else
+			{ routes = parseInParallel(chunks); }
+			return routes;
+		}
+		catch (IOException e)
+		{
+			System.err.println(e.toString());
+			return null;
+		}
+		catch (ParseException e)
+		{
+			System.err.println(e.getMessage());
+			return null;
+		}
+		finally
+		{
+			if (file != null)
+			{ try { file.close(); } catch (IOException f) {}; }
+		}
+	}
+
+	private static PackedRoutes parseInParallel(List<ChunkParser> chunks)
+			throws ParseException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(chunks.size());
+		try
+		{
+			List<Future<PackedRoutes>> results = executor.invokeAll(chunks);
+			PackedRoutes routes = null;
+			for (Future<PackedRoutes> result : results)
+			{
+				PackedRoutes chunkRoutes = result.get();
+				if (null == routes)
+				{ routes = chunkRoutes; }
+				else
+				{ routes.addAll(chunkRoutes); }
+			}
+			return routes;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ParseException("Interrupted while loading routing table");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof ParseException)
+			{ throw (ParseException)e.getCause(); }
+			throw new ParseException(e.getCause().toString());
+		}
+		finally
+		{ executor.shutdown(); }
+	}
+}
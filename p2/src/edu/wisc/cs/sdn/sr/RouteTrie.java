@@ -0,0 +1,351 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Path-compressed binary (Patricia) trie of route table entries, keyed by
+ * destination prefix. Supports longest prefix match lookups in time
+ * proportional to the number of bits in an address, rather than the number
+ * of entries in the route table.
+ *
+ * Tries are immutable: adding or removing an entry returns a new trie that
+ * shares all nodes off the path to the changed prefix with the original, so
+ * a trie can be read by any number of threads without locking.
+ */
+public class RouteTrie
+{
+	/** A node in the trie; a node without an entry only exists to join two
+	 * subtrees that diverge at its prefix length */
+	private static final class Node
+	{
+		/** Prefix bits for the node; bits beyond the prefix length are 0 */
+		final int prefix;
+
+		/** Number of significant bits in the prefix */
+		final int length;
+
+		/** Route for the prefix; null if the node is only a branch point */
+		final RouteTableEntry entry;
+
+		/** Subtrees whose next bit (after the prefix) is 0 and 1 */
+		final Node zero;
+		final Node one;
+
+		Node(int prefix, int length, RouteTableEntry entry, Node zero, Node one)
+		{
+			this.prefix = prefix;
+			this.length = length;
+			this.entry = entry;
+			this.zero = zero;
+			this.one = one;
+		}
+
+		Node child(int bit)
+		{ return (0 == bit ? this.zero : this.one); }
+
+		Node withChild(int bit, Node child)
+		{
+			if (0 == bit)
+			{ return new Node(this.prefix, this.length, this.entry, child, this.one); }
+			return new Node(this.prefix, this.length, this.entry, this.zero, child);
+		}
+
+		int childCount()
+		{ return (null == this.zero ? 0 : 1) + (null == this.one ? 0 : 1); }
+
+		Node onlyChild()
+		{ return (this.zero != null ? this.zero : this.one); }
+	}
+
+	/** A trie with no entries */
+	public static final RouteTrie EMPTY =
+			new RouteTrie(new Node(0, 0, null, null, null), 0);
+
+	/** Bits of a sort key used for an entry's position during a build */
+	private static final int BUILD_INDEX_BITS = 26;
+
+	/** Maximum number of entries in a build */
+	private static final int MAX_BUILD_ENTRIES = (1 << BUILD_INDEX_BITS) - 1;
+
+	/** Root of the trie; always has a prefix length of 0 */
+	private final Node root;
+
+	/** Number of entries in the trie */
+	private final int size;
+
+	private RouteTrie(Node root, int size)
+	{
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * @return number of entries in the trie
+	 */
+	public int size()
+	{ return this.size; }
+
+	/**
+	 * Convert a subnet mask to a prefix length. Masks are assumed to be
+	 * contiguous.
+	 * @param maskIp subnet mask
+	 * @return number of leading one bits in the mask
+	 */
+	public static int prefixLength(int maskIp)
+	{ return Integer.bitCount(maskIp); }
+
+	/**
+	 * Convert a prefix length to a subnet mask.
+	 * @param length number of leading one bits
+	 * @return subnet mask
+	 */
+	public static int prefixMask(int length)
+	{ return (0 == length ? 0 : (0xFFFFFFFF << (32 - length))); }
+
+	private static int bitAt(int ip, int index)
+	{ return (ip >>> (31 - index)) & 1; }
+
+	/**
+	 * Build a trie containing a set of entries in one pass, rather than
+	 * inserting them one at a time. If several entries have the same
+	 * destination and mask, the last one is kept.
+	 * @param entries entries to add
+	 * @return a trie containing the entries
+	 */
+	public static RouteTrie build(RouteTableEntry[] entries)
+	{
+		// Sort by prefix, then by length, so every subtree occupies a
+		// contiguous range with its root first; each key packs the prefix
+		// (with its top bit flipped, so signed order matches unsigned order),
+		// the length, and the entry's position (so the sort is stable)
+		if (entries.length > MAX_BUILD_ENTRIES)
+		{ throw new IllegalArgumentException("Too many entries: " + entries.length); }
+		long[] keys = new long[entries.length];
+		for (int i = 0; i < entries.length; i++)
+		{
+			int length = prefixLength(entries[i].getMaskAddress());
+			int prefix = entries[i].getDestinationAddress() & prefixMask(length);
+			keys[i] = ((long)(prefix ^ Integer.MIN_VALUE) << 32) 
+					| ((long)length << BUILD_INDEX_BITS) | i;
+		}
+		Arrays.sort(keys);
+
+		// Drop all but the last of each set of duplicates
+		int count = 0;
+		int[] sortedPrefixes = new int[entries.length];
+		int[] sortedLengths = new int[entries.length];
+		RouteTableEntry[] sorted = new RouteTableEntry[entries.length];
+		for (int i = 0; i < keys.length; i++)
+		{
+			int prefix = (int)(keys[i] >>> 32) ^ Integer.MIN_VALUE;
+			int length = (int)(keys[i] >>> BUILD_INDEX_BITS) & 0x3F;
+			if (count > 0 && sortedPrefixes[count - 1] == prefix
+					&& sortedLengths[count - 1] == length)
+			{ count--; }
+			sortedPrefixes[count] = prefix;
+			sortedLengths[count] = length;
+			sorted[count] = entries[(int)(keys[i] & MAX_BUILD_ENTRIES)];
+			count++;
+		}
+
+		// The root always has a prefix length of 0, even if no entry does
+		int start = 0;
+		RouteTableEntry rootEntry = null;
+		if (count > 0 && 0 == sortedLengths[0])
+		{
+			rootEntry = sorted[0];
+			start = 1;
+		}
+		int split = firstOne(sortedPrefixes, start, count, 0);
+		Node root = new Node(0, 0, rootEntry,
+				build(sorted, sortedPrefixes, sortedLengths, start, split),
+				build(sorted, sortedPrefixes, sortedLengths, split, count));
+		return new RouteTrie(root, count);
+	}
+
+	/**
+	 * Build the subtree for a range of sorted, distinct prefixes.
+	 * @return root of the subtree; null if the range is empty
+	 */
+	private static Node build(RouteTableEntry[] entries, int[] prefixes,
+			int[] lengths, int from, int to)
+	{
+		if (from >= to)
+		{ return null; }
+
+		// The subtree's root covers the bits shared by all of its prefixes;
+		// since the range is sorted, those are the bits shared by the first
+		// and last prefixes, and a prefix of exactly that length comes first
+		int common = Integer.numberOfLeadingZeros(
+				prefixes[from] ^ prefixes[to - 1]);
+		for (int i = from; i < to; i++)
+		{ common = Math.min(common, lengths[i]); }
+		int prefix = prefixes[from] & prefixMask(common);
+		RouteTableEntry entry = null;
+		if (lengths[from] == common)
+		{
+			entry = entries[from];
+			from++;
+		}
+
+		int split = firstOne(prefixes, from, to, common);
+		return new Node(prefix, common, entry,
+				build(entries, prefixes, lengths, from, split),
+				build(entries, prefixes, lengths, split, to));
+	}
+
+	/**
+	 * Find the first prefix in a sorted range with a 1 at a specific bit; all
+	 * prefixes in the range must share the bits before it.
+	 * @return index of the first such prefix; the end of the range if none
+	 */
+	private static int firstOne(int[] prefixes, int from, int to, int bit)
+	{
+		while (from < to && 0 == bitAt(prefixes[from], bit))
+		{ from++; }
+		return from;
+	}
+
+	/**
+	 * Add an entry to the trie, replacing any entry with the same destination
+	 * and mask.
+	 * @param entry entry to add
+	 * @return a trie containing the entry
+	 */
+	public RouteTrie insert(RouteTableEntry entry)
+	{
+		int length = prefixLength(entry.getMaskAddress());
+		int prefix = entry.getDestinationAddress() & prefixMask(length);
+		int size = this.size;
+		if (null == this.find(prefix, entry.getMaskAddress()))
+		{ size++; }
+		return new RouteTrie(insert(this.root, prefix, length, entry), size);
+	}
+
+	private static Node insert(Node node, int prefix, int length,
+			RouteTableEntry entry)
+	{
+		if (node.length == length)
+		{ return new Node(node.prefix, length, entry, node.zero, node.one); }
+
+		int bit = bitAt(prefix, node.length);
+		Node child = node.child(bit);
+		if (null == child)
+		{ return node.withChild(bit, new Node(prefix, length, entry, null, null)); }
+
+		// Determine how many bits the new prefix shares with the child
+		int common = Math.min(Integer.numberOfLeadingZeros(
+				prefix ^ child.prefix), Math.min(length, child.length));
+		if (common == child.length)
+		{ return node.withChild(bit, insert(child, prefix, length, entry)); }
+
+		// The new prefix diverges from the child (or is a prefix of it), so a
+		// new node must be spliced in above the child
+		Node leaf = new Node(prefix, length, entry, null, null);
+		if (common == length)
+		{ return node.withChild(bit, leaf.withChild(bitAt(child.prefix, length), child)); }
+		Node branch = new Node(prefix & prefixMask(common), common, null,
+				null, null);
+		branch = branch.withChild(bitAt(child.prefix, common), child);
+		branch = branch.withChild(bitAt(prefix, common), leaf);
+		return node.withChild(bit, branch);
+	}
+
+	/**
+	 * Remove the entry with a specific destination and mask from the trie.
+	 * @param dstIp destination IP of the entry to remove
+	 * @param maskIp subnet mask of the entry to remove
+	 * @return a trie without the entry; this trie if no entry matched
+	 */
+	public RouteTrie remove(int dstIp, int maskIp)
+	{
+		if (null == this.find(dstIp, maskIp))
+		{ return this; }
+		int length = prefixLength(maskIp);
+		int prefix = dstIp & prefixMask(length);
+		return new RouteTrie(remove(this.root, prefix, length), this.size - 1);
+	}
+
+	private static Node remove(Node node, int prefix, int length)
+	{
+		Node result;
+		if (node.length == length)
+		{ result = new Node(node.prefix, node.length, null, node.zero, node.one); }
+		else
+		{
+			int bit = bitAt(prefix, node.length);
+			result = node.withChild(bit, remove(node.child(bit), prefix, length));
+		}
+
+		// Drop or merge the node if it is no longer needed; the root (the only
+		// node with a prefix length of 0) always remains
+		if (result.length > 0 && null == result.entry)
+		{
+			int count = result.childCount();
+			if (0 == count)
+			{ return null; }
+			if (1 == count)
+			{ return result.onlyChild(); }
+		}
+		return result;
+	}
+
+	/**
+	 * Find the entry with a specific destination and mask.
+	 * @param dstIp destination IP of the entry to find
+	 * @param maskIp subnet mask of the entry to find
+	 * @return a matching entry if one was found, otherwise null
+	 */
+	public RouteTableEntry find(int dstIp, int maskIp)
+	{
+		int length = prefixLength(maskIp);
+		int prefix = dstIp & prefixMask(length);
+
+		Node node = this.root;
+		while (node != null && node.length < length)
+		{ node = node.child(bitAt(prefix, node.length)); }
+		if (null == node || node.length != length || node.prefix != prefix)
+		{ return null; }
+		return node.entry;
+	}
+
+	/**
+	 * Find the entry whose prefix is the longest match for an IP address.
+	 * @param ip IP address to match
+	 * @return the best matching entry; null if no entry matches
+	 */
+	public RouteTableEntry lookup(int ip)
+	{
+		RouteTableEntry best = null;
+		Node node = this.root;
+		while (node != null)
+		{
+			if (((ip ^ node.prefix) & prefixMask(node.length)) != 0)
+			{ break; }
+			if (node.entry != null)
+			{ best = node.entry; }
+			if (32 == node.length)
+			{ break; }
+			node = node.child(bitAt(ip, node.length));
+		}
+		return best;
+	}
+
+	/**
+	 * Add all entries in the trie to a list, in prefix order.
+	 * @param list list to which entries should be added
+	 */
+	public void collect(List<RouteTableEntry> list)
+	{ collect(this.root, list); }
+
+	private static void collect(Node node, List<RouteTableEntry> list)
+	{
+		if (null == node)
+		{ return; }
+		if (node.entry != null)
+		{ list.add(node.entry); }
+		collect(node.zero, list);
+		collect(node.one, list);
+	}
+}
@@ -10,8 +10,11 @@ import edu.wisc.cs.sdn.sr.vns.VNSComm;
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Data;
 import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.EthernetView;
 import net.floodlightcontroller.packet.ICMP;
 import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.IPv4View;
+import net.floodlightcontroller.packet.L4View;
 import net.floodlightcontroller.packet.UDP;
 import net.floodlightcontroller.util.MACAddress;
 
@@ -41,6 +44,12 @@ public class Router
 	/** ARP cache for the router */
 	private ArpCache arpCache;
 
+	/** Next hops for the router, kept up to date by the ARP cache */
+	private AdjacencyTable adjacencyTable;
+
+	/** Recent forwarding decisions, by destination IP */
+	private ForwardingCache forwardingCache;
+
 	/** PCAP dump file for logging all packets sent/received by the router;
 	 *  null if packets should not be logged */
 	private DumpFile logfile;
@@ -51,6 +60,19 @@ public class Router
 	/** RIP subsystem */
 	private RIP rip;
 
+	/** IP addresses of the router's interfaces, plus the RIP multicast
+	 * address; replaced (never modified) when the addresses change */
+	private volatile IntHashSet localAddresses;
+
+	/** Whether to print the full route table when it is loaded */
+	private boolean verbose;
+
+	/** Views used to forward frames without parsing them; only used by the
+	 * thread that receives packets */
+	private EthernetView etherView;
+	private IPv4View ipView;
+	private L4View l4View;
+
 	/**
 	 * Creates a router for a specific topology, host, and user.
 	 * @param topo topology ID for the router
@@ -66,10 +88,17 @@ public class Router
 		this.template = template;
 		this.logfile = null;
 		this.interfaces = new HashMap<String,Iface>();
-		this.routeTable = new RouteTable();
 		this.arpCache = new ArpCache(this);
+		this.adjacencyTable = new AdjacencyTable(this.arpCache);
+		this.routeTable = new RouteTable(this.adjacencyTable);
+		this.forwardingCache = new ForwardingCache(ForwardingCache.DEFAULT_SIZE);
 		this.vnsComm = null;
 		this.rip = new RIP(this);
+		this.verbose = false;
+		this.etherView = new EthernetView();
+		this.ipView = new IPv4View();
+		this.l4View = new L4View();
+		this.updateLocalAddresses();
 	}
 
 	public void init()
@@ -89,6 +118,25 @@ public class Router
 	public DumpFile getLogFile()
 	{ return this.logfile; }
 
+	/**
+	 * @param verbose whether to print the full route table when it is loaded,
+	 *        rather than just a summary, and report every forwarding table
+	 *        compiled from it rather than just the first
+	 */
+	public void setVerbose(boolean verbose)
+	{
+		this.verbose = verbose;
+		this.routeTable.setVerbose(verbose);
+	}
+
+	/**
+	 * @param snapshotFile file to which RIP should save the route table, and
+	 *        from which it should restore learned routes at startup; null if
+	 *        routes should not be saved
+	 */
+	public void setRouteSnapshotFile(String snapshotFile)
+	{ this.rip.setSnapshotFile(snapshotFile); }
+
 	/**
 	 * @param template template name for the router; null if no template
 	 */
@@ -137,6 +185,18 @@ public class Router
 	public RouteTable getRouteTable()
 	{ return this.routeTable; }
 
+	/**
+	 * @return next hops for the router
+	 */
+	public AdjacencyTable getAdjacencyTable()
+	{ return this.adjacencyTable; }
+
+	/**
+	 * @return ARP cache for the router
+	 */
+	public ArpCache getArpCache()
+	{ return this.arpCache; }
+
 	/**
 	 * @return list of the router's interfaces; maps interface name's to
 	 * 	       interfaces
@@ -165,6 +225,7 @@ public class Router
 	 */
 	public void loadRouteTable(String routeTableFile)
 	{
+		long start = System.currentTimeMillis();
 		if (!routeTable.load(routeTableFile))
 		{
 			System.err.println("Error setting up routing table from file "
@@ -172,10 +233,19 @@ public class Router
 			System.exit(1);
 		}
 
-		System.out.println("Loading routing table");
-		System.out.println("---------------------------------------------");
-		System.out.print(this.routeTable.toString());
-		System.out.println("---------------------------------------------");
+		System.out.println(String.format("Loaded %d routes from %s in %d ms",
+				this.routeTable.getSnapshot().size(), routeTableFile,
+				System.currentTimeMillis() - start));
+		ForwardingTable fib = this.routeTable.getForwardingTable();
+		if (fib != null && !this.verbose)
+		{ System.out.println(fib.toString()); }
+		if (this.verbose)
+		{
+			System.out.println("Loading routing table");
+			System.out.println("---------------------------------------------");
+			System.out.print(this.routeTable.toString());
+			System.out.println("---------------------------------------------");
+		}
 	}
 
 	/**
@@ -184,8 +254,10 @@ public class Router
 	 */
 	public Iface addInterface(String ifaceName)
 	{
-		Iface iface = new Iface(ifaceName);
+		Iface iface = new Iface(ifaceName, 
+				this.adjacencyTable.interfaceIndex(ifaceName));
 		this.interfaces.put(ifaceName, iface);
+		this.adjacencyTable.bindInterface(iface);
 		return iface;
 	}
 
@@ -198,6 +270,31 @@ public class Router
 	public Iface getInterface(String ifaceName)
 	{ return this.interfaces.get(ifaceName); }
 
+	/**
+	 * Gets an interface on the router by the interface's index.
+	 * @param ifaceIndex index of the desired interface
+	 * @return requested interface; null if no interface with the given index
+	 * 		   exists
+	 */
+	public Iface getInterface(int ifaceIndex)
+	{ return this.adjacencyTable.getInterface(ifaceIndex); }
+
+	/**
+	 * Rebuild the set of addresses for which the router accepts packets. Must
+	 * be called after the IP address of an interface changes.
+	 */
+	public void updateLocalAddresses()
+	{
+		IntHashSet localAddresses = new IntHashSet(this.interfaces.size() + 1);
+		localAddresses.add(RIP.RIP_MULTICAST_IP);
+		for (Iface iface : this.interfaces.values())
+		{
+			if (iface.getIpAddress() != 0)
+			{ localAddresses.add(iface.getIpAddress()); }
+		}
+		this.localAddresses = localAddresses;
+	}
+
 	/**
 	 * Send an Ethernet packet out a specific interface.
 	 * @param etherPacket an Ethernet packet with all fields, encapsulated
@@ -208,6 +305,95 @@ public class Router
 	public boolean sendPacket(Ethernet etherPacket, Iface iface)
 	{ return this.vnsComm.sendPacket(etherPacket, iface.getName()); }
 
+	/**
+	 * Send a frame that is already in wire format out a specific interface.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the frame in the buffer
+	 * @param length length of the frame
+	 * @param iface interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public boolean sendFrame(byte[] frame, int offset, int length, Iface iface)
+	{ return this.vnsComm.sendFrame(frame, offset, length, iface); }
+
+	/**
+	 * Forward a received frame by rewriting its headers in place, without 
+	 * parsing it into packet objects. Only the common case is handled here: a 
+	 * valid IPv4 packet for another host, with time to live, and a route 
+	 * whose next hop's MAC address is known. Anything else is left untouched
+	 * for {@link #handlePacket(Ethernet, Iface)}.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the frame in the buffer
+	 * @param length length of the frame
+	 * @param inIface the interface on which the frame was received
+	 * @return true if the frame was forwarded, false if it must be handled by
+	 *         parsing it
+	 */
+	public boolean forwardFrame(byte[] frame, int offset, int length, 
+			Iface inIface)
+	{
+		if (null == inIface || null == this.vnsComm)
+		{ return false; }
+
+		EthernetView etherView = this.etherView.wrap(frame, offset, length);
+		if (null == etherView || etherView.getEtherType() != Ethernet.TYPE_IPv4)
+		{ return false; }
+		IPv4View ipView = this.ipView.wrap(frame, 
+				etherView.getPayloadOffset(), etherView.getPayloadLength());
+		if (null == ipView || !ipView.isChecksumValid() 
+				|| ipView.getTtl() <= 1)
+		{ return false; }
+		int destinationIP = ipView.getDestinationAddress();
+		if (this.localAddresses.contains(destinationIP))
+		{ return false; }
+
+		long routeGeneration = this.routeTable.getGeneration();
+		ForwardingCache.Entry decision = this.forwardingCache.lookup(
+				destinationIP, routeGeneration);
+		if (null == decision)
+		{
+			RouteTableEntry routeEntry = findLongestPrefixMatch(destinationIP);
+			if (null == routeEntry)
+			{ return false; }
+			if (routeEntry.getAdjacency() != null)
+			{ decision = new ForwardingCache.Entry(destinationIP, routeGeneration, routeEntry); }
+			else
+			{
+				decision = new ForwardingCache.Entry(destinationIP, routeGeneration, 
+						adjacencyTable.get(routeEntry.getInterface(), destinationIP));
+			}
+			this.forwardingCache.put(decision);
+		}
+
+		// Only the first fragment of a datagram carries its ports, so all
+		// fragments are hashed without them and take the same path
+		int ports = 0;
+		L4View l4View = (ipView.isFragment() ? null : this.l4View.wrap(frame, 
+				ipView.getPayloadOffset(), ipView.getPayloadLength(), 
+				ipView.getProtocol()));
+		if (l4View != null && l4View.hasPorts())
+		{ ports = (l4View.getSourcePort() << 16) | (l4View.getDestinationPort() & 0xFFFF); }
+		Adjacency adjacency = decision.getAdjacency(flowHash(
+				ipView.getSourceAddress(), destinationIP, ipView.getProtocol(), 
+				ports));
+		// The header is replaced, never modified, so the two MAC addresses
+		// read from it always belong together
+		byte[] header = adjacency.getHeader();
+		if (null == header)
+		{ return false; }
+		Iface outIface = adjacency.getIface();
+
+		// The frame is logged as received before it is rewritten
+		if (this.logfile != null)
+		{ this.logfile.dump(frame, offset, length); }
+
+		adjacency.markUsed();
+		ipView.setTtl((byte)(ipView.getTtl() - 1));
+		System.arraycopy(header, 0, frame, offset, header.length);
+		this.sendFrame(frame, offset, length, outIface);
+		return true;
+	}
+
 	/**
 	 * Handle an Ethernet packet received on a specific interface.
 	 * @param etherPacket the Ethernet packet that was received
@@ -241,18 +427,10 @@ public class Router
 		int destinationIP = ipPacket.getDestinationAddress();
 
 		// TODO
-		if (!checkIPChecksum(ipPacket))
+		if (!ipPacket.verifyChecksum())
 			return;
 
-		boolean thisIsMyIP = false;
-		if (destinationIP == RIP.RIP_MULTICAST_IP)
-			thisIsMyIP = true;
-		for (Iface i : interfaces.values()) {
-			if (i.getIpAddress() == destinationIP) {
-				thisIsMyIP = true;
-				break;
-			}
-		}
+		boolean thisIsMyIP = localAddresses.contains(destinationIP);
 
 		if (thisIsMyIP) {
 			// Check if timeout
@@ -263,7 +441,7 @@ public class Router
 			}
 			if (ipPacket.getProtocol() == IPv4.PROTOCOL_ICMP) {
 				ICMP icmpPacket = (ICMP)ipPacket.getPayload();
-				if (checkICMPChecksum(icmpPacket) && icmpPacket.getIcmpType() == (byte) 8) {
+				if (icmpPacket.verifyChecksum() && icmpPacket.getIcmpType() == (byte) 8) {
 					// Send ICMP echo reply here
 					sendICMPReply(etherPacket, inIface);
 				} else {
@@ -289,51 +467,88 @@ public class Router
 				sendICMPError(etherPacket, inIface, (byte) 11, (byte) 0, false);
 				return;
 			}
+			// Decrementing the TTL adjusts the checksum to match
 			ipPacket.setTtl((byte)((int)ipPacket.getTtl() - 1));
-			ipPacket.setChecksum((short) 0);
-			etherPacket.setPayload(ipPacket);
 
-			RouteTableEntry routeEntry = findLongestPrefixMatch(destinationIP);
-			if (routeEntry == null) {
-				sendICMPError(etherPacket, inIface, (byte) 3, (byte) 0, false); // Unreachable net
-				return;
+			// The generation must be read before the route the decision is
+			// derived from, so a concurrent change invalidates the decision
+			long routeGeneration = this.routeTable.getGeneration();
+			ForwardingCache.Entry decision = this.forwardingCache.lookup(
+					destinationIP, routeGeneration);
+			if (decision == null) {
+				RouteTableEntry routeEntry = findLongestPrefixMatch(destinationIP);
+				if (routeEntry == null) {
+					sendICMPError(etherPacket, inIface, (byte) 3, (byte) 0, false); // Unreachable net
+					return;
+				}
+
+				// Routes through a gateway share the gateway's adjacency; hosts
+				// on directly connected subnets each have their own
+				if (routeEntry.getAdjacency() != null)
+					decision = new ForwardingCache.Entry(destinationIP, routeGeneration, routeEntry);
+				else
+					decision = new ForwardingCache.Entry(destinationIP, routeGeneration, 
+							adjacencyTable.get(routeEntry.getInterface(), destinationIP));
+				this.forwardingCache.put(decision);
 			}
 
-			// Forward message procedures
-			if (routeEntry.getGatewayAddress() == 0) {
-				if (arpCache.lookup(ipPacket.getDestinationAddress()) == null) {
-					arpCache.waitForArp(etherPacket, interfaces.get(routeEntry.getInterface()), ipPacket.getDestinationAddress());
-				} else {
-					etherPacket.setSourceMACAddress(interfaces.get(routeEntry.getInterface()).getMacAddress().toBytes());
-					etherPacket.setDestinationMACAddress(arpCache.lookup(ipPacket.getDestinationAddress()).getMac().toBytes());
-					sendPacket(etherPacket, interfaces.get(routeEntry.getInterface()));
-				}
-			} else {
-				ArpEntry arpEntry = arpCache.lookup(routeEntry.getGatewayAddress());
-				if (arpEntry == null) {
-					arpCache.waitForArp(etherPacket, interfaces.get(routeEntry.getInterface()), routeEntry.getGatewayAddress());
-				} else {
-					etherPacket.setSourceMACAddress(interfaces.get(routeEntry.getInterface()).getMacAddress().toBytes());
-					etherPacket.setDestinationMACAddress(arpEntry.getMac().toBytes());
-					sendPacket(etherPacket, interfaces.get(routeEntry.getInterface()));
-				}
+			// Forward message procedures; packets of the same flow always take
+			// the same one of any equal-cost paths
+			Adjacency adjacency = decision.getAdjacency(flowHash(ipPacket));
+			byte[] header = adjacency.getHeader();
+			if (header == null) {
+				arpCache.waitForArp(etherPacket, adjacency.getInterfaceIndex(), 
+						adjacency.getNextHopAddress());
+				return;
 			}
+			adjacency.markUsed();
+			etherPacket.setDestinationMACAddress(Arrays.copyOfRange(header, 
+					0, MACAddress.MAC_ADDRESS_LENGTH));
+			etherPacket.setSourceMACAddress(Arrays.copyOfRange(header, 
+					MACAddress.MAC_ADDRESS_LENGTH, header.length));
+			sendPacket(etherPacket, adjacency.getIface());
 		}
 	}
 
-	// TODO
+	/**
+	 * Hash the 5-tuple (addresses, protocol, and ports) of a packet's flow.
+	 * Ports are only included for TCP and UDP, and are read without decoding
+	 * the transport header; other packets, and fragments, are hashed by 
+	 * their addresses and protocol.
+	 * @param ipPacket the packet
+	 * @return hash of the packet's flow
+	 */
+	private static int flowHash(IPv4 ipPacket) {
+		int ports = (ipPacket.isFragment() ? 0 : ipPacket.getPorts());
+		return flowHash(ipPacket.getSourceAddress(), 
+				ipPacket.getDestinationAddress(), ipPacket.getProtocol(), ports);
+	}
+
+	/**
+	 * Hash the 5-tuple of a flow.
+	 * @param sourceIP source address
+	 * @param destinationIP destination address
+	 * @param protocol IP protocol
+	 * @param ports source port in the high 16 bits and destination port in 
+	 *        the low 16 bits; 0 if the protocol has no ports
+	 * @return hash of the flow
+	 */
+	private static int flowHash(int sourceIP, int destinationIP, byte protocol,
+			int ports) {
+		int hash = sourceIP;
+		hash = hash * 31 + destinationIP;
+		hash = hash * 31 + protocol;
+		if (ports != 0)
+			hash = hash * 31 + ports;
+		// Mix the bits so flows that differ only slightly spread across paths
+		hash ^= hash >>> 16;
+		hash *= 0x85EBCA6B;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
 	private RouteTableEntry findLongestPrefixMatch(int destIp) {
-		RouteTableEntry bestfit = null;
-		for (RouteTableEntry rtEntry : this.getRouteTable().getEntries()) {
-			int myAddress = destIp & rtEntry.getMaskAddress();
-			if (myAddress == (rtEntry.getDestinationAddress() & rtEntry.getMaskAddress())) {
-				if (bestfit == null)
-					bestfit = rtEntry;
-				else if (bestfit.getMaskAddress() < rtEntry.getMaskAddress())
-					bestfit = rtEntry;
-			}
-		}
-		return bestfit;
+		return this.routeTable.lookup(destIp);
 	}
 
 	// Done
@@ -355,8 +570,8 @@ public class Router
 		ip.setSourceAddress(sourceAddress);
 
 		eth.setPayload(ip);
-		byte[] destinationMACAddress = eth.getSourceMACAddress();
-		byte[] sourceMACAddress = eth.getDestinationMACAddress();
+		long destinationMACAddress = eth.getSourceMACLong();
+		long sourceMACAddress = eth.getDestinationMACLong();
 		eth.setDestinationMACAddress(destinationMACAddress);
 		eth.setSourceMACAddress(sourceMACAddress);
 		sendPacket(eth, inIface);
@@ -397,14 +612,14 @@ public class Router
 
 		etherPacket.setPayload(ipPacket);
 
-		byte[] destinationMACAddress = etherPacket.getSourceMACAddress();
-		byte[] sourceMACAddress = etherPacket.getDestinationMACAddress();
+		long destinationMACAddress = etherPacket.getSourceMACLong();
+		long sourceMACAddress = etherPacket.getDestinationMACLong();
 		etherPacket.setDestinationMACAddress(destinationMACAddress);
 		etherPacket.setSourceMACAddress(sourceMACAddress);
 		
 		if (type == (byte) 3 && code == (byte) 1) {
 			for (Iface i : interfaces.values()) {
-				if (i.getMacAddress().equals(new MACAddress(sourceMACAddress))) {
+				if (i.getMacAddress().matches(sourceMACAddress)) {
 					ipPacket.setSourceAddress(inIface.getIpAddress());
 					etherPacket.setPayload(ipPacket);
 					sendPacket(etherPacket, i);
@@ -415,48 +630,6 @@ public class Router
 		}
 	}
 
-	// Done and tested
-	private boolean checkIPChecksum(IPv4 packet) {
-		int accumulation = 0;
-		ByteBuffer byteBuffer = ByteBuffer.wrap(packet.serialize());
-		byteBuffer.putShort(10, (short) 0); // Set the checksum in the buffer to 0 
-		for (int i = 0; i < packet.getHeaderLength() * 2; ++i) {
-			accumulation += 0xffff & byteBuffer.getShort();
-		}
-		accumulation = ((accumulation >> 16) & 0xffff)
-		+ (accumulation & 0xffff);
-		short checksum = (short) (~accumulation & 0xffff);
-		if (checksum == packet.getChecksum())
-			return true;
-		else
-			return false;
-	}
-
-	// Done and tested
-	private boolean checkICMPChecksum(ICMP packet) {
-		ByteBuffer bb = ByteBuffer.wrap(packet.serialize());
-		bb.putShort(2, (short) 0);
-
-		int accumulation = 0;
-		int length = packet.serialize().length;
-		for (int i = 0; i < length / 2; ++i) {
-			accumulation += 0xffff & bb.getShort();
-		}
-		// Pad to an even number of shorts
-		if (length % 2 > 0) {
-			accumulation += (bb.get() & 0xff) << 8;
-		}
-
-		accumulation = ((accumulation >> 16) & 0xffff)
-		+ (accumulation & 0xffff);
-		short tmpChecksum = (short) (~accumulation & 0xffff);
-		if (tmpChecksum == packet.getChecksum()) {
-			return true;
-		} else {
-			return false;
-		}
-	}
-
 	/**
 	 * Handle an ARP packet received on a specific interface.
 	 * @param etherPacket the complete ARP packet that was received
@@ -473,12 +646,22 @@ public class Router
 		int targetIp = ByteBuffer.wrap(
 				arpPacket.getTargetProtocolAddress()).getInt();
 
+		int senderIp = ByteBuffer.wrap(
+				arpPacket.getSenderProtocolAddress()).getInt();
+		MACAddress senderMac = MACAddress.valueOf(
+				arpPacket.getSenderHardwareAddressLong());
+
 		switch(arpPacket.getOpCode())
 		{
 		case ARP.OP_REQUEST:
 			// Check if request is for one of my interfaces
 			if (targetIp == inIface.getIpAddress())
-			{ this.arpCache.sendArpReply(etherPacket, inIface); }
+			{
+				// The sender is about to talk to us, so its mapping will be
+				// needed for the reply traffic
+				this.learnArpMapping(senderIp, senderMac, inIface);
+				this.arpCache.sendArpReply(etherPacket, inIface);
+			}
 			break;
 		case ARP.OP_REPLY:
 			// Check if reply is for one of my interfaces
@@ -486,24 +669,41 @@ public class Router
 			{ break; }
 
 			// Update ARP cache with contents of ARP reply
-			int senderIp = ByteBuffer.wrap(arpPacket.getSenderProtocolAddress()).getInt();
-			ArpRequest request = this.arpCache.insert(
-					new MACAddress(arpPacket.getSenderHardwareAddress()),
-					senderIp);
-			// Process pending ARP request entry, if there is one
-			if (request != null)
-			{				
-				for (Ethernet packet : request.getWaitingPackets())
-				{
-					/*********************************************************/
-					/* TODO: send packet waiting on this request             */
-					packet.setSourceMACAddress(inIface.getMacAddress().toBytes());
-					packet.setDestinationMACAddress(arpPacket.getSenderHardwareAddress());
-					sendPacket(packet, inIface);
-					/*********************************************************/
-				}
-			}
+			this.learnArpMapping(senderIp, senderMac, inIface);
 			break;
 		}
 	}
+
+	/**
+	 * Add or refresh the mapping for a neighbor in the ARP cache, and send 
+	 * any packets that were waiting for it. Mappings are only learned for 
+	 * neighbors on the subnet of the interface they were heard on.
+	 * @param ip IP address of the neighbor
+	 * @param mac MAC address of the neighbor
+	 * @param inIface the interface on which the neighbor was heard
+	 */
+	public void learnArpMapping(int ip, MACAddress mac, Iface inIface)
+	{
+		int subnetMask = inIface.getSubnetMask();
+		if (0 == ip || ip == inIface.getIpAddress() || mac.isBroadcast()
+				|| mac.isMulticast()
+				|| (ip & subnetMask) != (inIface.getIpAddress() & subnetMask))
+		{ return; }
+
+		ArpRequest request = this.arpCache.insert(mac, ip);
+		// Process pending ARP request entry, if there is one
+		if (request != null)
+		{				
+			for (byte[] frame : request.getWaitingFrames())
+			{
+				/*********************************************************/
+				/* TODO: send packet waiting on this request             */
+				mac.writeTo(frame, 0);
+				inIface.getMacAddress().writeTo(frame, 
+						Ethernet.DATALAYER_ADDRESS_LENGTH);
+				sendFrame(frame, 0, frame.length, inIface);
+				/*********************************************************/
+			}
+		}
+	}
 }
@@ -0,0 +1,298 @@
+package edu.wisc.cs.sdn.sr;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel (Varghese and Lauck) that runs tasks after a delay.
+ * Time is divided into ticks, and each timeout is kept in a doubly linked
+ * list in the slot of the wheel for the tick at which it expires, modulo the
+ * number of slots; timeouts further away than one turn of the wheel wait in
+ * their slot until the wheel comes around again. Scheduling, cancelling and
+ * expiring a timeout therefore cost O(1), however many timeouts are pending.
+ *
+ * A single thread advances the wheel and runs the tasks that expire, so
+ * tasks must be short. Timeouts may be scheduled and cancelled from any
+ * thread; they are handed to the wheel's thread through queues. The thread
+ * sleeps while no timeouts are pending.
+ */
+public class TimerWheel implements Runnable
+{
+	/** Default length of a tick, in milliseconds; the thread wakes up once a
+	 * tick while any timeout is pending */
+	public static final int DEFAULT_TICK = 100;
+
+	/** Default number of slots in the wheel; with the default tick, one turn
+	 * of the wheel is about 25 seconds */
+	public static final int DEFAULT_SLOTS = 256;
+
+	/**
+	 * A task scheduled to run after a delay.
+	 */
+	public static class Timeout
+	{
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final TimerWheel wheel;
+		private final Runnable task;
+
+		/** Tick at which the timeout expires */
+		private final long deadline;
+
+		/** PENDING, CANCELLED or EXPIRED */
+		private final AtomicInteger state;
+
+		/** Neighbors in the slot's list, and the slot; only used by the
+		 * wheel's thread, and the slot is -1 while the timeout is not in
+		 * the wheel */
+		private Timeout prev;
+		private Timeout next;
+		private int slot;
+
+		private Timeout(TimerWheel wheel, Runnable task, long deadline)
+		{
+			this.wheel = wheel;
+			this.task = task;
+			this.deadline = deadline;
+			this.state = new AtomicInteger(PENDING);
+			this.slot = -1;
+		}
+
+		/**
+		 * Cancel the timeout, so its task does not run.
+		 * @return true if the timeout was cancelled, false if it has already
+		 *         expired or been cancelled
+		 */
+		public boolean cancel()
+		{
+			if (!this.state.compareAndSet(PENDING, CANCELLED))
+			{ return false; }
+			this.wheel.cancelled.add(this);
+			return true;
+		}
+
+		/**
+		 * @return true if the timeout was cancelled
+		 */
+		public boolean isCancelled()
+		{ return (CANCELLED == this.state.get()); }
+
+		/**
+		 * @return true if the timeout has expired and its task has run, or is
+		 *         running
+		 */
+		public boolean isExpired()
+		{ return (EXPIRED == this.state.get()); }
+	}
+
+	/** Length of a tick, in nanoseconds */
+	private final long tickNanos;
+
+	/** Heads of the lists of timeouts in each slot */
+	private final Timeout[] slots;
+
+	/** Number of slots minus one; the number of slots is a power of two */
+	private final int mask;
+
+	/** Time (from System.nanoTime()) at which tick 0 began */
+	private final long startTime;
+
+	/** Timeouts scheduled, and cancelled, since the wheel's thread last
+	 * looked */
+	private final Queue<Timeout> scheduled;
+	private final Queue<Timeout> cancelled;
+
+	/** Number of timeouts that have been scheduled but have neither expired
+	 * nor had their cancellation processed */
+	private final AtomicInteger pending;
+
+	/** Next tick to process; only used by the wheel's thread */
+	private long tick;
+
+	/** Thread that advances the wheel and runs expired tasks */
+	private final Thread thread;
+
+	/**
+	 * Create a timer wheel with the default tick and number of slots, and
+	 * start its thread.
+	 * @param name name for the wheel's thread
+	 */
+	public TimerWheel(String name)
+	{ this(name, DEFAULT_TICK, TimeUnit.MILLISECONDS, DEFAULT_SLOTS); }
+
+	/**
+	 * Create a timer wheel and start its thread.
+	 * @param name name for the wheel's thread
+	 * @param tick length of a tick; timeouts expire within one tick of their
+	 *        deadline
+	 * @param unit unit of the tick length
+	 * @param slots number of slots in the wheel; rounded up to a power of two
+	 */
+	public TimerWheel(String name, long tick, TimeUnit unit, int slots)
+	{
+		this.tickNanos = Math.max(1, unit.toNanos(tick));
+		int size = Integer.highestOneBit(Math.max(slots, 2) * 2 - 1);
+		this.slots = new Timeout[size];
+		this.mask = size - 1;
+		this.scheduled = new ConcurrentLinkedQueue<Timeout>();
+		this.cancelled = new ConcurrentLinkedQueue<Timeout>();
+		this.pending = new AtomicInteger(0);
+		this.startTime = System.nanoTime();
+		this.tick = 0;
+		this.thread = new Thread(this, name);
+		this.thread.start();
+	}
+
+	/**
+	 * Run a task after a delay.
+	 * @param task task to run, on the wheel's thread
+	 * @param delay delay before the task runs
+	 * @param unit unit of the delay
+	 * @return the timeout, which can be used to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit)
+	{
+		long elapsed = System.nanoTime() - this.startTime
+				+ Math.max(0, unit.toNanos(delay));
+		// Round up, so a task never runs early
+		long deadline = (elapsed + this.tickNanos - 1) / this.tickNanos;
+		Timeout timeout = new Timeout(this, task, deadline);
+		this.scheduled.add(timeout);
+		if (1 == this.pending.incrementAndGet())
+		{ LockSupport.unpark(this.thread); }
+		return timeout;
+	}
+
+	/**
+	 * @return number of timeouts that are waiting to expire
+	 */
+	public int size()
+	{ return this.pending.get(); }
+
+	/**
+	 * Advance the wheel one tick at a time, running the tasks of timeouts
+	 * that expire.
+	 */
+	public void run()
+	{
+		while (!Thread.currentThread().isInterrupted())
+		{
+			if (0 == this.pending.get())
+			{
+				// Nothing can expire, so sleep until something is scheduled
+				// and then skip the ticks that passed in the meantime
+				LockSupport.park(this);
+				this.tick = Math.max(this.tick, this.currentTick());
+				continue;
+			}
+
+			long wait = this.startTime + this.tick * this.tickNanos
+					- System.nanoTime();
+			if (wait > 0)
+			{
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+
+			this.transferScheduled();
+			this.removeCancelled();
+			this.expire(this.tick);
+			this.tick++;
+		}
+	}
+
+	/**
+	 * @return the tick that contains the current time
+	 */
+	private long currentTick()
+	{ return (System.nanoTime() - this.startTime) / this.tickNanos; }
+
+	/**
+	 * Put newly scheduled timeouts in their slots.
+	 */
+	private void transferScheduled()
+	{
+		Timeout timeout;
+		while ((timeout = this.scheduled.poll()) != null)
+		{
+			// A cancelled timeout is accounted for by removeCancelled()
+			if (timeout.isCancelled())
+			{ continue; }
+
+			// A timeout whose tick has already been processed expires in
+			// the current one
+			long deadline = Math.max(timeout.deadline, this.tick);
+			int slot = (int)(deadline & this.mask);
+			timeout.slot = slot;
+			timeout.prev = null;
+			timeout.next = this.slots[slot];
+			if (timeout.next != null)
+			{ timeout.next.prev = timeout; }
+			this.slots[slot] = timeout;
+		}
+	}
+
+	/**
+	 * Take cancelled timeouts out of their slots.
+	 */
+	private void removeCancelled()
+	{
+		Timeout timeout;
+		while ((timeout = this.cancelled.poll()) != null)
+		{
+			if (timeout.slot >= 0)
+			{ this.unlink(timeout); }
+			this.pending.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Run the tasks of the timeouts in a tick's slot that are due.
+	 * @param tick the tick
+	 */
+	private void expire(long tick)
+	{
+		int slot = (int)(tick & this.mask);
+		Timeout timeout = this.slots[slot];
+		while (timeout != null)
+		{
+			Timeout next = timeout.next;
+			if (timeout.deadline <= tick)
+			{
+				this.unlink(timeout);
+				if (timeout.state.compareAndSet(Timeout.PENDING,
+						Timeout.EXPIRED))
+				{
+					this.pending.decrementAndGet();
+					try
+					{ timeout.task.run(); }
+					catch (RuntimeException e)
+					{ e.printStackTrace(); }
+				}
+			}
+			timeout = next;
+		}
+	}
+
+	/**
+	 * Remove a timeout from its slot's list.
+	 * @param timeout the timeout
+	 */
+	private void unlink(Timeout timeout)
+	{
+		if (timeout.prev != null)
+		{ timeout.prev.next = timeout.next; }
+		else
+		{ this.slots[timeout.slot] = timeout.next; }
+		if (timeout.next != null)
+		{ timeout.next.prev = timeout.prev; }
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.slot = -1;
+	}
+}
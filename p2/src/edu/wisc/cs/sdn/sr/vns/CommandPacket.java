@@ -9,6 +9,11 @@ public class CommandPacket extends Command
 	protected String mInterfaceName;
 	protected Ethernet etherPacket;
 	
+	/** Buffer holding the received frame, and where the frame lies in it */
+	protected byte[] frame;
+	protected int frameOffset;
+	protected int frameLength;
+	
 	public CommandPacket()
 	{ super(Command.VNS_PACKET); }
 	
@@ -20,16 +25,50 @@ public class CommandPacket extends Command
 		buf.get(tmpBytes);
 		this.mInterfaceName = new String(tmpBytes).trim();
 		
-        this.etherPacket = new Ethernet();
-		this.etherPacket.deserialize(buf.array(), buf.position(),
-				buf.capacity() - buf.position());
+		// The frame is only parsed if something asks for it
+		this.frame = buf.array();
+		this.frameOffset = buf.position();
+		this.frameLength = buf.capacity() - buf.position();
+		this.etherPacket = null;
 		
 		return this;
 	}
 	
+	protected Ethernet getEtherPacket()
+	{
+		if (null == this.etherPacket)
+		{
+			this.etherPacket = new Ethernet();
+			this.etherPacket.deserialize(this.frame, this.frameOffset,
+					this.frameLength);
+		}
+		return this.etherPacket;
+	}
+	
 	protected int getSize()
 	{ return super.getSize() + 16; }
 	
+	/**
+	 * Serialize the command, including the Ethernet packet, into a buffer.
+	 * @param bb buffer to write into, starting at its position
+	 * @return the number of bytes written
+	 */
+	protected int serializeInto(ByteBuffer bb)
+	{
+		int start = bb.position();
+		bb.position(start + this.getSize());
+		int packetLength = this.etherPacket.serializeInto(bb);
+		this.mLen = this.getSize() + packetLength;
+		
+		bb.putInt(start, this.mLen);
+		bb.putInt(start + 4, this.mType);
+		byte[] name = this.mInterfaceName.getBytes();
+		for (int i = 0; i < 16; i++)
+		{ bb.put(start + 8 + i, (i < name.length) ? name[i] : 0); }
+		
+		return this.mLen;
+	}
+	
 	protected byte[] serialize()
 	{
 		byte[] packet = this.etherPacket.serialize();
@@ -10,9 +10,11 @@ import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import net.floodlightcontroller.packet.ARP;
 import net.floodlightcontroller.packet.Ethernet;
@@ -23,11 +25,40 @@ import edu.wisc.cs.sdn.sr.Iface;
 
 public class VNSComm 
 {
+	/** Size of the header of a VNS_PACKET command: length, type, and
+	 * interface name */
+	private static final int COMMAND_HEADER_SIZE = 4 + 4 + 16;
+	
+	/** Largest VNS_PACKET command: the header plus a tagged Ethernet frame
+	 * carrying the largest IPv4 packet */
+	private static final int MAX_COMMAND_SIZE = COMMAND_HEADER_SIZE + 18 + 65535;
+	
+	/** Largest command accepted from the server */
+	private static final int MAX_RECEIVED_COMMAND_SIZE = 10000;
+	
 	private Socket socket;
 	private Router router;
 	
+	/** Buffer into which each outgoing command is written; guarded by this */
+	private ByteBuffer sendBuffer;
+	
+	/** Buffer into which each incoming command is read; reused for every
+	 * command, so nothing may hold on to it after the command is handled */
+	private byte[] receiveBuffer;
+	
+	/** Router's interfaces, and their names as they appear in VNS_PACKET 
+	 * commands, indexed by interface index */
+	private volatile Iface[] ifaces;
+	private volatile byte[][] ifaceNames;
+	
 	public VNSComm(Router router)
-	{ this.router = router; }
+	{ 
+		this.router = router; 
+		this.sendBuffer = ByteBuffer.allocate(MAX_COMMAND_SIZE);
+		this.receiveBuffer = new byte[MAX_RECEIVED_COMMAND_SIZE];
+		this.ifaces = new Iface[0];
+		this.ifaceNames = new byte[0][];
+	}
 	
 	public boolean connectToServer(short port, String server)
 	{
@@ -133,6 +164,9 @@ public class VNSComm
 			}
 		}
 		
+		this.router.updateLocalAddresses();
+		this.updateInterfaceNames();
+		
 		System.out.println("Router interfaces:");
 		if (0 == this.router.getInterfaces().size())
 		{ System.out.println(" Interface list empty"); }
@@ -145,6 +179,56 @@ public class VNSComm
 		return true;
 	}
 	
+	/**
+	 * Record the name of each of the router's interfaces as it appears in
+	 * VNS_PACKET commands, so received frames can be matched to interfaces,
+	 * and frames can be sent, without converting names to and from strings.
+	 */
+	private void updateInterfaceNames()
+	{
+		int count = 0;
+		for (Iface iface : this.router.getInterfaces().values())
+		{ count = Math.max(count, iface.getIndex() + 1); }
+		
+		Iface[] ifaces = new Iface[count];
+		byte[][] ifaceNames = new byte[count][];
+		for (Iface iface : this.router.getInterfaces().values())
+		{
+			ifaces[iface.getIndex()] = iface;
+			ifaceNames[iface.getIndex()] = toCommandName(iface.getName());
+		}
+		this.ifaceNames = ifaceNames;
+		this.ifaces = ifaces;
+	}
+	
+	/**
+	 * @param ifaceName name of an interface
+	 * @return the name as it appears in a VNS_PACKET command: 16 bytes, 
+	 *         padded with zeros
+	 */
+	private static byte[] toCommandName(String ifaceName)
+	{ return Arrays.copyOf(ifaceName.getBytes(), 16); }
+	
+	/**
+	 * Find the interface whose name appears in a VNS_PACKET command.
+	 * @param buf buffer holding the command
+	 * @param offset offset of the interface name in the buffer
+	 * @return the interface, or null if the name is not one of the router's
+	 *         interfaces
+	 */
+	private Iface findInterface(byte[] buf, int offset)
+	{
+		Iface[] ifaces = this.ifaces;
+		byte[][] ifaceNames = this.ifaceNames;
+		for (int i = 0; i < ifaces.length; i++)
+		{
+			if (ifaces[i] != null && Arrays.equals(ifaceNames[i], 0, 16, 
+					buf, offset, offset + 16))
+			{ return ifaces[i]; }
+		}
+		return null;
+	}
+	
 	public boolean handleRtable(CommandRtable cmdRtable)
 	{
 		String filename = String.format("rtable.%s.", cmdRtable.mVIrtualHostId);
@@ -249,12 +333,12 @@ public class VNSComm
 		}
 		
 		// Attempt to read the size of the incoming packet
-		byte[] lenBytes = new byte[4];
+		byte[] recv = this.receiveBuffer;
 		while (bytesRead < 4)
 		{
 			try 
 			{
-				int ret = inStream.read(lenBytes, bytesRead, 4 - bytesRead);
+				int ret = inStream.read(recv, bytesRead, 4 - bytesRead);
 				if (ret < 0)
 				{ throw new Exception(); }
 				bytesRead += ret;
@@ -266,9 +350,10 @@ public class VNSComm
 			}
 		}
 		
-		int len = ByteBuffer.wrap(lenBytes).getInt();
+		int len = ((recv[0] & 0xff) << 24) | ((recv[1] & 0xff) << 16)
+				| ((recv[2] & 0xff) << 8) | (recv[3] & 0xff);
 		
-		if (len > 10000 || len < 0)
+		if (len > MAX_RECEIVED_COMMAND_SIZE || len < 8)
 		{
 			System.err.println(String.format(
 					"Error: comamnd length too large %d", len));
@@ -276,18 +361,12 @@ public class VNSComm
 			return false;
 		}
 		
-		// Allocate buffer
-		ByteBuffer buf = ByteBuffer.allocate(len);
-		
-		// Set first field of command since we've already read it
-		buf.putInt(len);
-		
 		// Read the rest of the command
 		while (bytesRead < len)
 		{
 			try 
 			{
-				int ret = inStream.read(buf.array(), bytesRead, len - bytesRead);
+				int ret = inStream.read(recv, bytesRead, len - bytesRead);
 				if (ret < 0)
 				{ throw new Exception(); }
 				bytesRead += ret;
@@ -302,7 +381,8 @@ public class VNSComm
 		}
 		
 		// Make sure the command is what we expected if we were expecting something
-		int command = buf.getInt();
+		int command = ((recv[4] & 0xff) << 24) | ((recv[5] & 0xff) << 16)
+				| ((recv[6] & 0xff) << 8) | (recv[7] & 0xff);
 		if (expectedCmd != 0 && command != expectedCmd)
 		{
 			if (command != Command.VNS_CLOSE) // VNS_CLOSE is always ok
@@ -314,25 +394,34 @@ public class VNSComm
 			}
 		}
 		
-		buf.position(0);
+		// Forward transit packets straight from the receive buffer, without
+		// parsing them or allocating anything
+		if (Command.VNS_PACKET == command && len >= COMMAND_HEADER_SIZE
+				&& this.router.forwardFrame(recv, COMMAND_HEADER_SIZE, 
+						len - COMMAND_HEADER_SIZE, findInterface(recv, 8)))
+		{ return true; }
+		
+		// Anything else is handled from a copy of the command, since packets
+		// decoded from it may outlive the receive buffer's contents
+		ByteBuffer buf = ByteBuffer.wrap(Arrays.copyOf(recv, len));
 		switch(command)
 		{
 		case Command.VNS_PACKET:
 			CommandPacket cmdPkt = new CommandPacket();
 			cmdPkt.deserialize(buf);
+			Iface inIface = this.router.getInterface(cmdPkt.mInterfaceName);
 			
 			// Check if it is an ARP to another router if so drop
-			if (this.arpRequestNotForUs(cmdPkt.etherPacket, 
+			if (this.arpRequestNotForUs(cmdPkt.getEtherPacket(), 
 					cmdPkt.mInterfaceName))
 			{ break; }
 			
 			// Log packet
             if (this.router.getLogFile() != null)
-            { this.router.getLogFile().dump(cmdPkt.etherPacket); }
+            { this.router.getLogFile().dump(cmdPkt.getEtherPacket()); }
 			
 			// Pass to router, student's code should take over here
-			this.router.handlePacket(cmdPkt.etherPacket, 
-					this.router.getInterface(cmdPkt.mInterfaceName));
+			this.router.handlePacket(cmdPkt.getEtherPacket(), inIface);
 			break;
 			
 		case Command.VNS_CLOSE:
@@ -419,7 +508,7 @@ public class VNSComm
 					+ ", does not exist");
 			return false;
 		}
-		if (!iface.getMacAddress().equals(etherPacket.getSourceMAC()))
+		if (!iface.getMacAddress().matches(etherPacket.getSourceMACLong()))
 		{
 			System.err.println("** Error, source address does not match interface"); 
 			return false;
@@ -428,13 +517,21 @@ public class VNSComm
 	}
 	
 	// sr_send_packet
-	public boolean sendPacket(Ethernet etherPacket, String ifaceName)
+	public synchronized boolean sendPacket(Ethernet etherPacket, String ifaceName)
 	{
 		CommandPacket cmdPacket = new CommandPacket();
 		cmdPacket.mInterfaceName = ifaceName;
 		cmdPacket.etherPacket = etherPacket;
 		
-		byte[] buf = cmdPacket.serialize();
+		this.sendBuffer.clear();
+		int size;
+		try
+		{ size = cmdPacket.serializeInto(this.sendBuffer); }
+		catch (BufferOverflowException e)
+		{
+			System.err.println("*** Error: packet is too large to send");
+			return false;
+		}
 		
 		if (!etherAddrsMatchInterface(etherPacket, ifaceName))
 		{
@@ -442,14 +539,59 @@ public class VNSComm
 			return false;
 		}
 		
+		return this.writeCommand(size);
+	}
+	
+	/**
+	 * Send a frame that is already in wire format.
+	 * @param frame buffer containing the frame
+	 * @param offset offset of the frame in the buffer
+	 * @param length length of the frame
+	 * @param iface interface on which to send the frame
+	 * @return true if the frame was sent successfully, otherwise false
+	 */
+	public synchronized boolean sendFrame(byte[] frame, int offset, int length, 
+			Iface iface)
+	{
+		int size = COMMAND_HEADER_SIZE + length;
+		if (size > this.sendBuffer.capacity())
+		{
+			System.err.println("*** Error: packet is too large to send");
+			return false;
+		}
+		
+		this.sendBuffer.clear();
+		this.sendBuffer.putInt(size);
+		this.sendBuffer.putInt(Command.VNS_PACKET);
+		byte[][] ifaceNames = this.ifaceNames;
+		int index = iface.getIndex();
+		if (index < ifaceNames.length && ifaceNames[index] != null)
+		{ this.sendBuffer.put(ifaceNames[index]); }
+		else
+		{ this.sendBuffer.put(toCommandName(iface.getName())); }
+		this.sendBuffer.put(frame, offset, length);
+		
+		return this.writeCommand(size);
+	}
+	
+	/**
+	 * Log and write a VNS_PACKET command held in the send buffer.
+	 * @param size size of the command
+	 * @return true if the command was written successfully, otherwise false
+	 */
+	private boolean writeCommand(int size)
+	{
 		// Log packet
         if (this.router.getLogFile() != null)
-        { this.router.getLogFile().dump(etherPacket); }
+        { 
+        	this.router.getLogFile().dump(this.sendBuffer.array(), 
+        			COMMAND_HEADER_SIZE, size - COMMAND_HEADER_SIZE); 
+        }
 		
 	    try
 		{
 			OutputStream outStream = socket.getOutputStream();
-			outStream.write(buf);
+			outStream.write(this.sendBuffer.array(), 0, size);
             outStream.flush();
 		}
 		catch(IOException e)
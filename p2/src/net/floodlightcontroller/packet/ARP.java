@@ -20,6 +20,8 @@ package net.floodlightcontroller.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import net.floodlightcontroller.util.MACAddress;
+
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -44,6 +46,32 @@ public class ARP extends BasePacket {
     protected byte[] targetHardwareAddress;
     protected byte[] targetProtocolAddress;
 
+    public ARP() {
+    }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public ARP(ARP other) {
+        super(other);
+        this.hardwareType = other.hardwareType;
+        this.protocolType = other.protocolType;
+        this.hardwareAddressLength = other.hardwareAddressLength;
+        this.protocolAddressLength = other.protocolAddressLength;
+        this.opCode = other.opCode;
+        this.senderHardwareAddress = copyOf(other.senderHardwareAddress);
+        this.senderProtocolAddress = copyOf(other.senderProtocolAddress);
+        this.targetHardwareAddress = copyOf(other.targetHardwareAddress);
+        this.targetProtocolAddress = copyOf(other.targetProtocolAddress);
+    }
+
+    @Override
+    public ARP copy() {
+        return new ARP(this);
+    }
+
     /**
      * @return the hardwareType
      */
@@ -134,6 +162,32 @@ public class ARP extends BasePacket {
         return this;
     }
 
+    /**
+     * @return the senderHardwareAddress as a MAC, in the lower 48 bits of a
+     *         long; only meaningful if the hardware type is Ethernet
+     */
+    public long getSenderHardwareAddressLong() {
+        return MACAddress.readFrom(senderHardwareAddress, 0);
+    }
+
+    /**
+     * @param senderHardwareAddress the senderHardwareAddress to set
+     */
+    public ARP setSenderHardwareAddress(MACAddress senderHardwareAddress) {
+        return setSenderHardwareAddress(senderHardwareAddress.toLong());
+    }
+
+    /**
+     * @param senderHardwareAddress the senderHardwareAddress to set, as a MAC in
+     *        the lower 48 bits of a long
+     */
+    public ARP setSenderHardwareAddress(long senderHardwareAddress) {
+        byte[] address = new byte[MACAddress.MAC_ADDRESS_LENGTH];
+        MACAddress.writeTo(senderHardwareAddress, address, 0);
+        this.senderHardwareAddress = address;
+        return this;
+    }
+
     /**
      * @return the senderProtocolAddress
      */
@@ -169,6 +223,32 @@ public class ARP extends BasePacket {
         return this;
     }
 
+    /**
+     * @return the targetHardwareAddress as a MAC, in the lower 48 bits of a
+     *         long; only meaningful if the hardware type is Ethernet
+     */
+    public long getTargetHardwareAddressLong() {
+        return MACAddress.readFrom(targetHardwareAddress, 0);
+    }
+
+    /**
+     * @param targetHardwareAddress the targetHardwareAddress to set
+     */
+    public ARP setTargetHardwareAddress(MACAddress targetHardwareAddress) {
+        return setTargetHardwareAddress(targetHardwareAddress.toLong());
+    }
+
+    /**
+     * @param targetHardwareAddress the targetHardwareAddress to set, as a MAC in
+     *        the lower 48 bits of a long
+     */
+    public ARP setTargetHardwareAddress(long targetHardwareAddress) {
+        byte[] address = new byte[MACAddress.MAC_ADDRESS_LENGTH];
+        MACAddress.writeTo(targetHardwareAddress, address, 0);
+        this.targetHardwareAddress = address;
+        return this;
+    }
+
     /**
      * @return the targetProtocolAddress
      */
@@ -211,19 +291,25 @@ public class ARP extends BasePacket {
         int length = 8 + (2 * (0xff & this.hardwareAddressLength))
                 + (2 * (0xff & this.protocolAddressLength));
         byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        bb.putShort(this.hardwareType);
-        bb.putShort(this.protocolType);
-        bb.put(this.hardwareAddressLength);
-        bb.put(this.protocolAddressLength);
-        bb.putShort(this.opCode);
-        bb.put(this.senderHardwareAddress, 0, 0xff & this.hardwareAddressLength);
-        bb.put(this.senderProtocolAddress, 0, 0xff & this.protocolAddressLength);
-        bb.put(this.targetHardwareAddress, 0, 0xff & this.hardwareAddressLength);
-        bb.put(this.targetProtocolAddress, 0, 0xff & this.protocolAddressLength);
+        serializeInto(ByteBuffer.wrap(data));
         return data;
     }
 
+    @Override
+    public int serializeInto(ByteBuffer dst) {
+        int start = dst.position();
+        dst.putShort(this.hardwareType);
+        dst.putShort(this.protocolType);
+        dst.put(this.hardwareAddressLength);
+        dst.put(this.protocolAddressLength);
+        dst.putShort(this.opCode);
+        dst.put(this.senderHardwareAddress, 0, 0xff & this.hardwareAddressLength);
+        dst.put(this.senderProtocolAddress, 0, 0xff & this.protocolAddressLength);
+        dst.put(this.targetHardwareAddress, 0, 0xff & this.hardwareAddressLength);
+        dst.put(this.targetProtocolAddress, 0, 0xff & this.protocolAddressLength);
+        return dst.position() - start;
+    }
+
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
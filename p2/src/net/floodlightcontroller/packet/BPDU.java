@@ -68,6 +68,33 @@ public class BPDU extends BasePacket {
                 break;
         }
     }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public BPDU(BPDU other) {
+        super(other);
+        this.llcHeader = other.llcHeader.copy();
+        this.protocolId = other.protocolId;
+        this.version = other.version;
+        this.type = other.type;
+        this.flags = other.flags;
+        this.rootBridgeId = copyOf(other.rootBridgeId);
+        this.rootPathCost = other.rootPathCost;
+        this.senderBridgeId = copyOf(other.senderBridgeId);
+        this.portId = other.portId;
+        this.messageAge = other.messageAge;
+        this.maxAge = other.maxAge;
+        this.helloTime = other.helloTime;
+        this.forwardDelay = other.forwardDelay;
+    }
+
+    @Override
+    public BPDU copy() {
+        return new BPDU(this);
+    }
     
     @Override
     public byte[] serialize() {
@@ -20,8 +20,6 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author Shudong Zhou (shudong.zhou@bigswitch.com)
@@ -32,12 +30,12 @@ public class BSN extends BasePacket {
 	public static final short BSN_VERSION_CURRENT = 0x0;
 	public static final short BSN_TYPE_PROBE = 0x1;
 	public static final short BSN_TYPE_BDDP  = 0x2;
-	public static Map<Short, Class<? extends IPacket>> typeClassMap;
+	public static final PayloadRegistry typeFactories;
 	
     static {
-        typeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        typeClassMap.put(BSN_TYPE_PROBE, BSNPROBE.class);
-        typeClassMap.put(BSN_TYPE_BDDP, LLDP.class);
+        typeFactories = new PayloadRegistry(16);
+        typeFactories.register(BSN_TYPE_PROBE, BSNPROBE::new);
+        typeFactories.register(BSN_TYPE_BDDP, LLDP::new);
     }
 
 	protected short type;
@@ -52,6 +50,22 @@ public class BSN extends BasePacket {
     	version = BSN_VERSION_CURRENT;
     }
 
+    /**
+     * Create a copy of a packet and its payloads, field by field, without
+     * serializing anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public BSN(BSN other) {
+    	super(other);
+    	this.type = other.type;
+    	this.version = other.version;
+    }
+
+    @Override
+    public BSN copy() {
+    	return new BSN(this);
+    }
+
     public short getType() {
 		return type;
 	}
@@ -74,10 +88,8 @@ public class BSN extends BasePacket {
     public byte[] serialize() {
     	short length = 4 /* magic */ + 2 /* type */ + 2 /* version */;
     	
-    	byte[] payloadData = null;
-    	if (this.payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
+    	byte[] payloadData = serializePayload();
+    	if (payloadData != null) {
             length += payloadData.length;
         }
     
@@ -112,21 +124,8 @@ public class BSN extends BasePacket {
         	        + BSN_VERSION_CURRENT);
         }
         
-        IPacket payload;
-        if (typeClassMap.containsKey(this.type)) {
-            Class<? extends IPacket> clazz = typeClassMap.get(this.type);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for BSN packet" + e);
-            }
-        } else {
-            payload = new Data();
-        }
-        
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit() - bb.position());
-        this.payload.setParent(this);
+        this.setRawPayload(typeFactories.getOrData(this.type),
+                data, bb.position(), bb.limit() - bb.position());
         
         return this;
     }
@@ -162,8 +161,8 @@ public class BSN extends BasePacket {
     public String toString() {
     	StringBuffer sb = new StringBuffer("\n");
     	sb.append("BSN packet");
-        if (typeClassMap.containsKey(this.type))
-        	sb.append(" type: " + typeClassMap.get(this.type).getCanonicalName());
+        if (typeFactories.contains(this.type))
+        	sb.append(" type: " + typeFactories.get(this.type).get().getClass().getCanonicalName());
         else
         	sb.append(" type: " + this.type);
         
@@ -40,6 +40,26 @@ public class BSNPROBE extends BasePacket {
         dstMac = new byte[6];
     }
 
+    /**
+     * Create a copy of a packet and its payloads, field by field, without
+     * serializing anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public BSNPROBE(BSNPROBE other) {
+        super(other);
+        this.controllerId = other.controllerId;
+        this.sequenceId = other.sequenceId;
+        this.srcMac = copyOf(other.srcMac);
+        this.dstMac = copyOf(other.dstMac);
+        this.srcSwDpid = other.srcSwDpid;
+        this.srcPortNo = other.srcPortNo;
+    }
+
+    @Override
+    public BSNPROBE copy() {
+        return new BSNPROBE(this);
+    }
+
 
 	public long getControllerId() {
 		return this.controllerId;
@@ -100,10 +120,8 @@ public class BSNPROBE extends BasePacket {
     	short length = 8 /* controllerId */ + 4 /* seqId */
     			+ 12 /* srcMac dstMac */ + 8 /* srcSwDpid */ + 4 /* srcPortNo */;
     	
-    	byte[] payloadData = null;
-    	if (this.payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
+    	byte[] payloadData = serializePayload();
+    	if (payloadData != null) {
             length += payloadData.length;
         }
     
@@ -136,9 +154,7 @@ public class BSNPROBE extends BasePacket {
         this.srcPortNo = bb.getInt();
         
         if (bb.hasRemaining()) {
-        	this.payload = new Data();
-	        this.payload = payload.deserialize(data, bb.position(), bb.limit() - bb.position());
-	        this.payload.setParent(this);
+        	this.setRawPayload(DATA_FACTORY, data, bb.position(), bb.limit() - bb.position());
         }
         
         return this;
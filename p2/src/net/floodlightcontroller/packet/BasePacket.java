@@ -17,6 +17,11 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
 
 /**
 *
@@ -26,6 +31,62 @@ public abstract class BasePacket implements IPacket {
     protected IPacket parent;
     protected IPacket payload;
 
+    /** Bytes of a payload that has not been decoded yet, and the factory for
+     * the packet that will decode them on the first call to getPayload();
+     * null once the payload is decoded or replaced */
+    protected Supplier<? extends IPacket> payloadFactory;
+    protected byte[] rawPayload;
+    protected int rawPayloadOffset;
+    protected int rawPayloadLength;
+
+    /** Initial size of the per-thread buffer used by serializeToArray() */
+    private static final int SCRATCH_SIZE = 2048;
+
+    /** Per-thread buffer used by serializeToArray(); taken out while in use,
+     * so nested calls allocate their own */
+    private static final ThreadLocal<ByteBuffer> scratch =
+            new ThreadLocal<ByteBuffer>();
+
+    /** Bytes this packet was deserialized from, kept so checksums can be
+     * verified without serializing the packet again; null if the packet
+     * was not deserialized */
+    protected byte[] wireData;
+    protected int wireOffset;
+    protected int wireLength;
+
+    /** Factory for payloads that are decoded as opaque data */
+    protected static final Supplier<Data> DATA_FACTORY = Data::new;
+
+    protected BasePacket() {
+    }
+
+    /**
+     * Copy the parent and payload of another packet, for the copy
+     * constructors of subclasses. A decoded payload is copied with its own
+     * copy(); an undecoded one is copied as bytes, and stays undecoded.
+     * @param other the packet being copied
+     */
+    protected BasePacket(BasePacket other) {
+        this.parent = other.parent;
+        if (other.payloadFactory != null) {
+            setRawPayload(other.payloadFactory,
+                    Arrays.copyOfRange(other.rawPayload, other.rawPayloadOffset,
+                            other.rawPayloadOffset + other.rawPayloadLength),
+                    0, other.rawPayloadLength);
+        } else if (other.payload != null) {
+            this.payload = other.payload.copy();
+            this.payload.setParent(this);
+        }
+    }
+
+    /**
+     * @param array an array to copy, or null
+     * @return a copy of the array, or null if it is null
+     */
+    protected static byte[] copyOf(byte[] array) {
+        return (null == array) ? null : Arrays.copyOf(array, array.length);
+    }
+
     /**
      * @return the parent
      */
@@ -48,6 +109,15 @@ public abstract class BasePacket implements IPacket {
      */
     @Override
     public IPacket getPayload() {
+        if (payloadFactory != null) {
+            IPacket decoded = payloadFactory.get();
+            payloadFactory = null;
+            payload = decoded.deserialize(rawPayload, rawPayloadOffset,
+                    rawPayloadLength);
+            rawPayload = null;
+            if (payload != null)
+                payload.setParent(this);
+        }
         return payload;
     }
 
@@ -57,8 +127,160 @@ public abstract class BasePacket implements IPacket {
     @Override
     public IPacket setPayload(IPacket payload) {
         this.payload = payload;
+        this.payloadFactory = null;
+        this.rawPayload = null;
         return this;
     }
+
+    /**
+     * Defer decoding the payload until it is first requested.
+     * @param factory creates the packet that will decode the payload
+     * @param data buffer holding the payload; must not be modified while the
+     *        payload remains undecoded
+     * @param offset offset of the payload in the buffer
+     * @param length length of the payload
+     */
+    protected void setRawPayload(Supplier<? extends IPacket> factory,
+            byte[] data, int offset, int length) {
+        this.payload = null;
+        this.payloadFactory = factory;
+        this.rawPayload = data;
+        this.rawPayloadOffset = offset;
+        this.rawPayloadLength = length;
+    }
+
+    /**
+     * @return true if the payload has not been decoded yet
+     */
+    public boolean isPayloadRaw() {
+        return payloadFactory != null;
+    }
+
+    /**
+     * Serialize this packet into a buffer by way of serialize(), for packet
+     * classes that do not write themselves in place. Subclasses whose
+     * headers can be written directly override this.
+     * @param dst buffer to write into, starting at its position
+     * @return the number of bytes written
+     */
+    public int serializeInto(ByteBuffer dst) {
+        byte[] data = serialize();
+        dst.put(data);
+        return data.length;
+    }
+
+    /**
+     * Serialize the payload into a buffer. A payload that has not been
+     * decoded is copied as is, without decoding it.
+     * @param dst buffer to write into, starting at its position
+     * @return the number of bytes written
+     */
+    protected int serializePayloadInto(ByteBuffer dst) {
+        if (payloadFactory != null) {
+            dst.put(rawPayload, rawPayloadOffset, rawPayloadLength);
+            return rawPayloadLength;
+        }
+        if (payload == null)
+            return 0;
+        payload.setParent(this);
+        return payload.serializeInto(dst);
+    }
+
+    /**
+     * Serialize this packet and its payloads with serializeInto(), for
+     * packets whose length is not known until their payloads are written.
+     * @return a byte[] containing this packet and payloads
+     */
+    protected byte[] serializeToArray() {
+        ByteBuffer bb = scratch.get();
+        scratch.set(null);
+        if (null == bb)
+            bb = ByteBuffer.allocate(SCRATCH_SIZE);
+        try {
+            while (true) {
+                bb.clear();
+                try {
+                    int length = serializeInto(bb);
+                    return Arrays.copyOf(bb.array(), length);
+                } catch (BufferOverflowException e) {
+                    bb = ByteBuffer.allocate(bb.capacity() * 2);
+                }
+            }
+        } finally {
+            scratch.set(bb);
+        }
+    }
+
+    /**
+     * Remember the bytes this packet is being deserialized from.
+     * @param data buffer holding the packet
+     * @param offset offset of the packet in the buffer
+     * @param length length of the packet
+     */
+    protected void setWireData(byte[] data, int offset, int length) {
+        this.wireData = data;
+        this.wireOffset = offset;
+        this.wireLength = length;
+    }
+
+    /**
+     * Determine the length of this packet's bytes that a checksum covers.
+     * Bytes beyond the end of the enclosing IPv4 packet (e.g., Ethernet
+     * padding) are excluded.
+     * @return number of bytes, starting at wireOffset
+     */
+    protected int checksummedLength() {
+        int length = this.wireLength;
+        if (this.parent instanceof IPv4) {
+            IPv4 ipv4 = (IPv4) this.parent;
+            int payloadLength = (ipv4.getTotalLength() & 0xffff)
+                    - ipv4.getHeaderLength() * 4;
+            if (payloadLength >= 0 && payloadLength < length)
+                length = payloadLength;
+        }
+        return length;
+    }
+
+    /**
+     * Sum the bytes covered by this packet's checksum, as received, folded
+     * to 16 bits; the sum is 0xffff if the checksum is correct. Packets that
+     * were not deserialized are summed as they would be serialized.
+     * @param pseudoHeader whether the checksum covers the TCP/UDP
+     *        pseudo-header of an enclosing IPv4 packet
+     * @return the sum
+     */
+    protected int sumReceived(boolean pseudoHeader) {
+        byte[] data = this.wireData;
+        int offset = this.wireOffset;
+        int length = (null == data) ? 0 : checksummedLength();
+        if (null == data) {
+            data = serialize();
+            offset = 0;
+            length = data.length;
+        }
+        int initial = 0;
+        if (pseudoHeader && this.parent instanceof IPv4) {
+            IPv4 ipv4 = (IPv4) this.parent;
+            initial = InternetChecksum.pseudoHeaderSum(ipv4.getSourceAddress(),
+                    ipv4.getDestinationAddress(), ipv4.getProtocol(), length);
+        }
+        return InternetChecksum.sum(data, offset, length, initial);
+    }
+
+    /**
+     * Serialize the payload. A payload that has not been decoded is copied
+     * as is, without decoding it.
+     * @return the serialized payload, or null if there is no payload
+     */
+    protected byte[] serializePayload() {
+        if (payloadFactory != null)
+            return Arrays.copyOfRange(rawPayload, rawPayloadOffset,
+                    rawPayloadOffset + rawPayloadLength);
+        if (payload == null)
+            return null;
+        payload.setParent(this);
+        return payload.serialize();
+    }
     
     @Override
     public void resetChecksum() {
@@ -73,6 +295,7 @@ public abstract class BasePacket implements IPacket {
     public int hashCode() {
         final int prime = 6733;
         int result = 1;
+        IPacket payload = getPayload();
         result = prime * result + ((payload == null) ? 0 : payload.hashCode());
         return result;
     }
@@ -89,28 +312,17 @@ public abstract class BasePacket implements IPacket {
         if (!(obj instanceof BasePacket))
             return false;
         BasePacket other = (BasePacket) obj;
+        IPacket payload = getPayload();
         if (payload == null) {
-            if (other.payload != null)
+            if (other.getPayload() != null)
                 return false;
-        } else if (!payload.equals(other.payload))
+        } else if (!payload.equals(other.getPayload()))
             return false;
         return true;
     }
     
     @Override
     public Object clone() {
-        IPacket pkt;
-        try {
-            pkt = this.getClass().newInstance();
-        } catch (Exception e) {
-            throw new RuntimeException("Could not clone packet");
-        }
-        // TODO: we are using serialize()/deserialize() to perform the 
-        // cloning. Not the most efficient way but simple. We can revisit
-        // if we hit performance problems.
-        byte[] data = this.serialize();
-        pkt.deserialize(this.serialize(), 0, data.length);
-        pkt.setParent(this.parent);
-        return pkt;
+        return copy();
     }
 }
\ No newline at end of file
@@ -100,6 +100,40 @@ public class DHCP extends BasePacket {
     protected String bootFileName;
     protected List<DHCPOption> options = new ArrayList<DHCPOption>();
 
+    public DHCP() {
+    }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public DHCP(DHCP other) {
+        super(other);
+        this.opCode = other.opCode;
+        this.hardwareType = other.hardwareType;
+        this.hardwareAddressLength = other.hardwareAddressLength;
+        this.hops = other.hops;
+        this.transactionId = other.transactionId;
+        this.seconds = other.seconds;
+        this.flags = other.flags;
+        this.clientIPAddress = other.clientIPAddress;
+        this.yourIPAddress = other.yourIPAddress;
+        this.serverIPAddress = other.serverIPAddress;
+        this.gatewayIPAddress = other.gatewayIPAddress;
+        this.clientHardwareAddress = copyOf(other.clientHardwareAddress);
+        this.serverName = other.serverName;
+        this.bootFileName = other.bootFileName;
+        for (DHCPOption option : other.options) {
+            this.options.add(new DHCPOption(option));
+        }
+    }
+
+    @Override
+    public DHCP copy() {
+        return new DHCP(this);
+    }
+
     /**
      * @return the opCode
      */
@@ -28,6 +28,20 @@ public class DHCPOption {
     protected byte length;
     protected byte[] data;
 
+    public DHCPOption() {
+    }
+
+    /**
+     * Create a copy of an option.
+     * @param other the option to copy
+     */
+    public DHCPOption(DHCPOption other) {
+        this.code = other.code;
+        this.length = other.length;
+        this.data = (null == other.data) ? null
+                : Arrays.copyOf(other.data, other.data.length);
+    }
+
     /**
      * @return the code
      */
@@ -17,6 +17,7 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -39,6 +40,21 @@ public class Data extends BasePacket {
         this.data = data;
     }
 
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public Data(Data other) {
+        super(other);
+        this.data = copyOf(other.data);
+    }
+
+    @Override
+    public Data copy() {
+        return new Data(this);
+    }
+
     /**
      * @return the data
      */
@@ -58,6 +74,14 @@ public class Data extends BasePacket {
         return this.data;
     }
 
+    @Override
+    public int serializeInto(ByteBuffer dst) {
+        if (this.data == null)
+            return 0;
+        dst.put(this.data);
+        return this.data.length;
+    }
+
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         this.data = Arrays.copyOfRange(data, offset, data.length);
@@ -18,9 +18,6 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 import net.floodlightcontroller.util.MACAddress;
 import org.openflow.util.HexString;
@@ -38,19 +35,20 @@ public class Ethernet extends BasePacket {
     public static final short TYPE_BSN = (short) 0x8942;
     public static final short VLAN_UNTAGGED = (short)0xffff;
     public static final short DATALAYER_ADDRESS_LENGTH = 6; // bytes
-    public static Map<Short, Class<? extends IPacket>> etherTypeClassMap;
+    public static final PayloadRegistry etherTypeFactories;
 
     static {
-        etherTypeClassMap = new HashMap<Short, Class<? extends IPacket>>();
-        etherTypeClassMap.put(TYPE_ARP, ARP.class);
-        etherTypeClassMap.put(TYPE_RARP, ARP.class);
-        etherTypeClassMap.put(TYPE_IPv4, IPv4.class);
-        etherTypeClassMap.put(TYPE_LLDP, LLDP.class);
-        etherTypeClassMap.put(TYPE_BSN, BSN.class);
+        etherTypeFactories = new PayloadRegistry(16);
+        etherTypeFactories.register(TYPE_ARP, ARP::new);
+        etherTypeFactories.register(TYPE_RARP, ARP::new);
+        etherTypeFactories.register(TYPE_IPv4, IPv4::new);
+        etherTypeFactories.register(TYPE_LLDP, LLDP::new);
+        etherTypeFactories.register(TYPE_BSN, BSN::new);
     }
 
-    protected MACAddress destinationMACAddress;
-    protected MACAddress sourceMACAddress;
+    /** MAC addresses, in the lower 48 bits of a long */
+    protected long destinationMACAddress;
+    protected long sourceMACAddress;
     protected byte priorityCode;
     protected short vlanID;
     protected short etherType;
@@ -63,18 +61,47 @@ public class Ethernet extends BasePacket {
         super();
         this.vlanID = VLAN_UNTAGGED;
     }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public Ethernet(Ethernet other) {
+        super(other);
+        this.destinationMACAddress = other.destinationMACAddress;
+        this.sourceMACAddress = other.sourceMACAddress;
+        this.priorityCode = other.priorityCode;
+        this.vlanID = other.vlanID;
+        this.etherType = other.etherType;
+        this.pad = other.pad;
+    }
+
+    @Override
+    public Ethernet copy() {
+        return new Ethernet(this);
+    }
     
     /**
      * @return the destination MAC as a byte array
      */
     public byte[] getDestinationMACAddress() {
-        return destinationMACAddress.toBytes();
+        byte[] address = new byte[MACAddress.MAC_ADDRESS_LENGTH];
+        MACAddress.writeTo(destinationMACAddress, address, 0);
+        return address;
     }
     
     /**
      * @return the destination MAC
      */
     public MACAddress getDestinationMAC() {
+        return MACAddress.valueOf(destinationMACAddress);
+    }
+
+    /**
+     * @return the destination MAC, in the lower 48 bits of a long
+     */
+    public long getDestinationMACLong() {
         return destinationMACAddress;
     }
 
@@ -82,7 +109,24 @@ public class Ethernet extends BasePacket {
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(byte[] destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        this.destinationMACAddress = MACAddress.readFrom(destinationMACAddress, 0);
+        return this;
+    }
+
+    /**
+     * @param destinationMACAddress the destination MAC to set
+     */
+    public Ethernet setDestinationMACAddress(MACAddress destinationMACAddress) {
+        this.destinationMACAddress = destinationMACAddress.toLong();
+        return this;
+    }
+
+    /**
+     * @param destinationMACAddress the destination MAC to set, in the lower 48 bits of a
+     *        long
+     */
+    public Ethernet setDestinationMACAddress(long destinationMACAddress) {
+        this.destinationMACAddress = destinationMACAddress & MACAddress.MASK;
         return this;
     }
 
@@ -90,7 +134,7 @@ public class Ethernet extends BasePacket {
      * @param destinationMACAddress the destination MAC to set
      */
     public Ethernet setDestinationMACAddress(String destinationMACAddress) {
-        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress);
+        this.destinationMACAddress = MACAddress.valueOf(destinationMACAddress).toLong();
         return this;
     }
 
@@ -98,13 +142,22 @@ public class Ethernet extends BasePacket {
      * @return the source MACAddress as a byte array
      */
     public byte[] getSourceMACAddress() {
-        return sourceMACAddress.toBytes();
+        byte[] address = new byte[MACAddress.MAC_ADDRESS_LENGTH];
+        MACAddress.writeTo(sourceMACAddress, address, 0);
+        return address;
     }
     
     /**
      * @return the source MACAddress
      */
     public MACAddress getSourceMAC() {
+        return MACAddress.valueOf(sourceMACAddress);
+    }
+
+    /**
+     * @return the source MAC, in the lower 48 bits of a long
+     */
+    public long getSourceMACLong() {
         return sourceMACAddress;
     }
 
@@ -112,7 +165,24 @@ public class Ethernet extends BasePacket {
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(byte[] sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        this.sourceMACAddress = MACAddress.readFrom(sourceMACAddress, 0);
+        return this;
+    }
+
+    /**
+     * @param sourceMACAddress the source MAC to set
+     */
+    public Ethernet setSourceMACAddress(MACAddress sourceMACAddress) {
+        this.sourceMACAddress = sourceMACAddress.toLong();
+        return this;
+    }
+
+    /**
+     * @param sourceMACAddress the source MAC to set, in the lower 48 bits of a
+     *        long
+     */
+    public Ethernet setSourceMACAddress(long sourceMACAddress) {
+        this.sourceMACAddress = sourceMACAddress & MACAddress.MASK;
         return this;
     }
 
@@ -120,7 +190,7 @@ public class Ethernet extends BasePacket {
      * @param sourceMACAddress the source MAC to set
      */
     public Ethernet setSourceMACAddress(String sourceMACAddress) {
-        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress);
+        this.sourceMACAddress = MACAddress.valueOf(sourceMACAddress).toLong();
         return this;
     }
 
@@ -173,15 +243,14 @@ public class Ethernet extends BasePacket {
      * @return True if the Ethernet frame is broadcast, false otherwise
      */
     public boolean isBroadcast() {
-        assert(destinationMACAddress.length() == 6);
-        return destinationMACAddress.isBroadcast();
+        return MACAddress.isBroadcast(destinationMACAddress);
     }
     
     /**
      * @return True is the Ethernet frame is multicast, False otherwise
      */
     public boolean isMulticast() {
-        return destinationMACAddress.isMulticast();
+        return MACAddress.isMulticast(destinationMACAddress);
     }
     /**
      * Pad this packet to 60 bytes minimum, filling with zeros?
@@ -201,31 +270,27 @@ public class Ethernet extends BasePacket {
     }
 
     public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-        int length = 14 + ((vlanID == VLAN_UNTAGGED) ? 0 : 4) +
-                          ((payloadData == null) ? 0 : payloadData.length);
-        if (pad && length < 60) {
-            length = 60;
-        }
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-        bb.put(destinationMACAddress.toBytes());
-        bb.put(sourceMACAddress.toBytes());
+        return serializeToArray();
+    }
+
+    @Override
+    public int serializeInto(ByteBuffer dst) {
+        int start = dst.position();
+        dst.putShort((short) (destinationMACAddress >>> 32));
+        dst.putInt((int) destinationMACAddress);
+        dst.putShort((short) (sourceMACAddress >>> 32));
+        dst.putInt((int) sourceMACAddress);
         if (vlanID != VLAN_UNTAGGED) {
-            bb.putShort((short) 0x8100);
-            bb.putShort((short) ((priorityCode << 13) | (vlanID & 0x0fff)));
+            dst.putShort((short) 0x8100);
+            dst.putShort((short) ((priorityCode << 13) | (vlanID & 0x0fff)));
         }
-        bb.putShort(etherType);
-        if (payloadData != null)
-            bb.put(payloadData);
+        dst.putShort(etherType);
+        serializePayloadInto(dst);
         if (pad) {
-            Arrays.fill(data, bb.position(), data.length, (byte)0x0);
+            while (dst.position() - start < 60)
+                dst.put((byte) 0x0);
         }
-        return data;
+        return dst.position() - start;
     }
 
     @Override
@@ -233,17 +298,9 @@ public class Ethernet extends BasePacket {
         if (length <= 0)
             return null;
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
-        if (this.destinationMACAddress == null)
-            this.destinationMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] dstAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(dstAddr);
-        this.destinationMACAddress = MACAddress.valueOf(dstAddr);
-
-        if (this.sourceMACAddress == null)
-            this.sourceMACAddress = MACAddress.valueOf(new byte[6]);
-        byte[] srcAddr = new byte[MACAddress.MAC_ADDRESS_LENGTH];
-        bb.get(srcAddr);
-        this.sourceMACAddress = MACAddress.valueOf(srcAddr);
+        bb.position(offset + 2 * MACAddress.MAC_ADDRESS_LENGTH);
+        this.destinationMACAddress = MACAddress.readFrom(data, offset);
+        this.sourceMACAddress = MACAddress.readFrom(data, offset + 6);
 
         short etherType = bb.getShort();
         if (etherType == (short) 0x8100) {
@@ -256,19 +313,8 @@ public class Ethernet extends BasePacket {
         }
         this.etherType = etherType;
         
-        IPacket payload;
-        if (Ethernet.etherTypeClassMap.containsKey(this.etherType)) {
-            Class<? extends IPacket> clazz = Ethernet.etherTypeClassMap.get(this.etherType);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for Ethernet packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        this.setRawPayload(etherTypeFactories.getOrData(this.etherType),
+                data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 
@@ -308,7 +354,7 @@ public class Ethernet extends BasePacket {
      * @return a long containing the mac address bytes
      */
     public static long toLong(byte[] macAddress) {
-        return MACAddress.valueOf(macAddress).toLong();
+        return MACAddress.readFrom(macAddress, 0);
     }
 
     /**
@@ -327,12 +373,12 @@ public class Ethernet extends BasePacket {
     public int hashCode() {
         final int prime = 7867;
         int result = super.hashCode();
-        result = prime * result + destinationMACAddress.hashCode();
+        result = prime * result + Long.hashCode(destinationMACAddress);
         result = prime * result + etherType;
         result = prime * result + vlanID;
         result = prime * result + priorityCode;
         result = prime * result + (pad ? 1231 : 1237);
-        result = prime * result + sourceMACAddress.hashCode();
+        result = prime * result + Long.hashCode(sourceMACAddress);
         return result;
     }
 
@@ -348,7 +394,7 @@ public class Ethernet extends BasePacket {
         if (!(obj instanceof Ethernet))
             return false;
         Ethernet other = (Ethernet) obj;
-        if (!destinationMACAddress.equals(other.destinationMACAddress))
+        if (destinationMACAddress != other.destinationMACAddress)
             return false;
         if (priorityCode != other.priorityCode)
             return false;
@@ -358,7 +404,7 @@ public class Ethernet extends BasePacket {
             return false;
         if (pad != other.pad)
             return false;
-        if (!sourceMACAddress.equals(other.sourceMACAddress))
+        if (sourceMACAddress != other.sourceMACAddress)
             return false;
         return true;
     }
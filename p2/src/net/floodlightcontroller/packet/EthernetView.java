@@ -0,0 +1,128 @@
+package net.floodlightcontroller.packet;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * A flyweight view of the Ethernet header at the start of a frame. Fields are
+ * read and written directly in the underlying buffer, so a single view can be
+ * re-pointed at each received frame without allocating or copying anything.
+ * Views are not thread-safe.
+ */
+public class EthernetView {
+    /** Length of an untagged Ethernet header */
+    public static final int HEADER_LENGTH = 14;
+
+    /** Extra length of an 802.1Q tag */
+    public static final int VLAN_TAG_LENGTH = 4;
+
+    protected static final short TYPE_VLAN = (short) 0x8100;
+
+    protected byte[] data;
+    protected int offset;
+    protected int length;
+    protected int headerLength;
+
+    /**
+     * Point this view at a frame.
+     * @param data buffer containing the frame
+     * @param offset offset of the frame in the buffer
+     * @param length length of the frame
+     * @return this view, or null if the frame is too short to hold an
+     *         Ethernet header
+     */
+    public EthernetView wrap(byte[] data, int offset, int length) {
+        if (length < HEADER_LENGTH)
+            return null;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.headerLength = HEADER_LENGTH;
+        if (Views.getShort(data, offset + 12) == TYPE_VLAN) {
+            if (length < HEADER_LENGTH + VLAN_TAG_LENGTH)
+                return null;
+            this.headerLength += VLAN_TAG_LENGTH;
+        }
+        return this;
+    }
+
+    /**
+     * @return the buffer containing the frame
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return offset of the frame in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return length of the frame
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return the destination MAC, in the low 48 bits of a long
+     */
+    public long getDestinationMAC() {
+        return MACAddress.readFrom(data, offset);
+    }
+
+    /**
+     * @param mac the destination MAC to set, in the low 48 bits of a long
+     */
+    public EthernetView setDestinationMAC(long mac) {
+        MACAddress.writeTo(mac, data, offset);
+        return this;
+    }
+
+    /**
+     * @return the source MAC, in the low 48 bits of a long
+     */
+    public long getSourceMAC() {
+        return MACAddress.readFrom(data, offset + 6);
+    }
+
+    /**
+     * @param mac the source MAC to set, in the low 48 bits of a long
+     */
+    public EthernetView setSourceMAC(long mac) {
+        MACAddress.writeTo(mac, data, offset + 6);
+        return this;
+    }
+
+    /**
+     * @return the vlanID, or Ethernet.VLAN_UNTAGGED if the frame is untagged
+     */
+    public short getVlanID() {
+        if (headerLength == HEADER_LENGTH)
+            return Ethernet.VLAN_UNTAGGED;
+        return (short) (Views.getShort(data, offset + 14) & 0x0fff);
+    }
+
+    /**
+     * @return the etherType of the payload
+     */
+    public short getEtherType() {
+        return Views.getShort(data, offset + headerLength - 2);
+    }
+
+    /**
+     * @return offset of the payload in the buffer
+     */
+    public int getPayloadOffset() {
+        return offset + headerLength;
+    }
+
+    /**
+     * @return length of the payload
+     */
+    public int getPayloadLength() {
+        return length - headerLength;
+    }
+}
@@ -30,6 +30,26 @@ public class ICMP extends BasePacket {
     protected byte icmpCode;
     protected short checksum;
 
+    public ICMP() {
+    }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public ICMP(ICMP other) {
+        super(other);
+        this.icmpType = other.icmpType;
+        this.icmpCode = other.icmpCode;
+        this.checksum = other.checksum;
+    }
+
+    @Override
+    public ICMP copy() {
+        return new ICMP(this);
+    }
+
     /**
      * @return the icmpType
      */
@@ -75,6 +95,16 @@ public class ICMP extends BasePacket {
         return this;
     }
 
+    /**
+     * Verify the checksum against the bytes the packet was received as,
+     * without serializing it; modifications made since the packet was
+     * deserialized are not taken into account.
+     * @return true if the checksum is correct, otherwise false
+     */
+    public boolean verifyChecksum() {
+        return InternetChecksum.isValid(sumReceived(false));
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
@@ -82,45 +112,27 @@ public class ICMP extends BasePacket {
      *      -length : 0
      */
     public byte[] serialize() {
-        int length = 4;
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
-        }
-
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+        return serializeToArray();
+    }
 
-        bb.put(this.icmpType);
-        bb.put(this.icmpCode);
-        bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+    @Override
+    public int serializeInto(ByteBuffer dst) {
+        int start = dst.position();
+        dst.put(this.icmpType);
+        dst.put(this.icmpCode);
+        dst.putShort(this.checksum);
+        serializePayloadInto(dst);
+        int length = dst.position() - start;
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_ICMP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
-            }
-
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(2, this.checksum);
+            this.checksum = InternetChecksum.checksum(dst, start, length, 0);
+            dst.putShort(start + 2, this.checksum);
         }
-        return data;
+        return length;
     }
 
     /* (non-Javadoc)
@@ -160,13 +172,12 @@ public class ICMP extends BasePacket {
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+        this.setWireData(data, offset, length);
         this.icmpType = bb.get();
         this.icmpCode = bb.get();
         this.checksum = bb.getShort();
         
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        this.setRawPayload(DATA_FACTORY, data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 }
@@ -17,6 +17,8 @@
 
 package net.floodlightcontroller.packet;
 
+import java.nio.ByteBuffer;
+
 /**
 *
 * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -60,6 +62,16 @@ public interface IPacket {
      */
     public byte[] serialize();
 
+    /**
+     * Sets all payloads parent packet if applicable, then serializes this
+     * packet and all payloads directly into a buffer, without intermediate
+     * copies
+     * @param dst buffer to write into, starting at its position; the
+     *        position is advanced past the serialized packet
+     * @return the number of bytes written
+     */
+    public int serializeInto(ByteBuffer dst);
+
     /**
      * Deserializes this packet layer and all possible payloads
      * @param data
@@ -69,6 +81,13 @@ public interface IPacket {
      */
     public IPacket deserialize(byte[] data, int offset, int length);
     
+    /**
+     * Copy this packet and its payloads, field by field, without
+     * serializing them. The copy has the same parent as this packet.
+     * @return the copy
+     */
+    public IPacket copy();
+
     /** Clone this packet and its payload packet but not its parent. 
      * 
      * @return
@@ -23,8 +23,6 @@ package net.floodlightcontroller.packet;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * @author David Erickson (daviderickson@cs.stanford.edu)
@@ -34,13 +32,15 @@ public class IPv4 extends BasePacket {
     public static final byte PROTOCOL_ICMP = 0x1;
     public static final byte PROTOCOL_TCP = 0x6;
     public static final byte PROTOCOL_UDP = 0x11;
-    public static Map<Byte, Class<? extends IPacket>> protocolClassMap;
+    public static final byte IPV4_FLAGS_MOREFRAG = 0x1;
+    public static final byte IPV4_FLAGS_DONTFRAG = 0x2;
+    public static final PayloadRegistry protocolFactories;
 
     static {
-        protocolClassMap = new HashMap<Byte, Class<? extends IPacket>>();
-        protocolClassMap.put(PROTOCOL_ICMP, ICMP.class);
-        protocolClassMap.put(PROTOCOL_TCP, TCP.class);
-        protocolClassMap.put(PROTOCOL_UDP, UDP.class);
+        protocolFactories = new PayloadRegistry(8);
+        protocolFactories.register(PROTOCOL_ICMP, ICMP::new);
+        protocolFactories.register(PROTOCOL_TCP, TCP::new);
+        protocolFactories.register(PROTOCOL_UDP, UDP::new);
     }
 
     protected byte version;
@@ -68,6 +68,34 @@ public class IPv4 extends BasePacket {
         isTruncated = false;
     }
 
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public IPv4(IPv4 other) {
+        super(other);
+        this.version = other.version;
+        this.headerLength = other.headerLength;
+        this.diffServ = other.diffServ;
+        this.totalLength = other.totalLength;
+        this.identification = other.identification;
+        this.flags = other.flags;
+        this.fragmentOffset = other.fragmentOffset;
+        this.ttl = other.ttl;
+        this.protocol = other.protocol;
+        this.checksum = other.checksum;
+        this.sourceAddress = other.sourceAddress;
+        this.destinationAddress = other.destinationAddress;
+        this.options = copyOf(other.options);
+        this.isTruncated = other.isTruncated;
+    }
+
+    @Override
+    public IPv4 copy() {
+        return new IPv4(this);
+    }
+
     /**
      * @return the version
      */
@@ -101,6 +129,7 @@ public class IPv4 extends BasePacket {
      * @param diffServ the diffServ to set
      */
     public IPv4 setDiffServ(byte diffServ) {
+        updateChecksum((short) (this.diffServ & 0xff), (short) (diffServ & 0xff));
         this.diffServ = diffServ;
         return this;
     }
@@ -131,6 +160,7 @@ public class IPv4 extends BasePacket {
      * @param identification the identification to set
      */
     public IPv4 setIdentification(short identification) {
+        updateChecksum(this.identification, identification);
         this.identification = identification;
         return this;
     }
@@ -146,6 +176,7 @@ public class IPv4 extends BasePacket {
      * @param flags the flags to set
      */
     public IPv4 setFlags(byte flags) {
+        updateChecksum((short) ((this.flags & 0x7) << 13), (short) ((flags & 0x7) << 13));
         this.flags = flags;
         return this;
     }
@@ -161,10 +192,42 @@ public class IPv4 extends BasePacket {
      * @param fragmentOffset the fragmentOffset to set
      */
     public IPv4 setFragmentOffset(short fragmentOffset) {
+        updateChecksum((short) (this.fragmentOffset & 0x1fff), (short) (fragmentOffset & 0x1fff));
         this.fragmentOffset = fragmentOffset;
         return this;
     }
 
+    /**
+     * @return true if the packet is a fragment of a larger datagram: more
+     *         fragments follow it, or its fragment offset is not zero
+     */
+    public boolean isFragment() {
+        return (flags & IPV4_FLAGS_MOREFRAG) != 0 || (fragmentOffset & 0x1fff) != 0;
+    }
+
+    /**
+     * Read the ports of a TCP or UDP payload, without decoding the payload
+     * if it has not been decoded yet.
+     * @return the source port in the high 16 bits and the destination port
+     *         in the low 16 bits; 0 if the payload is not TCP or UDP
+     */
+    public int getPorts() {
+        if (isPayloadRaw()) {
+            L4View view = new L4View().wrap(this.rawPayload,
+                    this.rawPayloadOffset, this.rawPayloadLength, this.protocol);
+            if (view == null || !view.hasPorts())
+                return 0;
+            return (view.getSourcePort() << 16) | (view.getDestinationPort() & 0xffff);
+        } else if (this.payload instanceof TCP) {
+            TCP tcp = (TCP) this.payload;
+            return (tcp.getSourcePort() << 16) | (tcp.getDestinationPort() & 0xffff);
+        } else if (this.payload instanceof UDP) {
+            UDP udp = (UDP) this.payload;
+            return (udp.getSourcePort() << 16) | (udp.getDestinationPort() & 0xffff);
+        }
+        return 0;
+    }
+
     /**
      * @return the ttl
      */
@@ -176,6 +239,7 @@ public class IPv4 extends BasePacket {
      * @param ttl the ttl to set
      */
     public IPv4 setTtl(byte ttl) {
+        updateChecksum((short) (this.ttl << 8), (short) (ttl << 8));
         this.ttl = ttl;
         return this;
     }
@@ -191,6 +255,7 @@ public class IPv4 extends BasePacket {
      * @param protocol the protocol to set
      */
     public IPv4 setProtocol(byte protocol) {
+        updateChecksum((short) (this.protocol & 0xff), (short) (protocol & 0xff));
         this.protocol = protocol;
         return this;
     }
@@ -209,12 +274,81 @@ public class IPv4 extends BasePacket {
         this.checksum = checksum;
         return this;
     }
+    /**
+     * Verify the header checksum against the bytes the packet was received
+     * as, without serializing it; modifications made since the packet was
+     * deserialized are not taken into account.
+     * @return true if the checksum is correct, otherwise false
+     */
+    public boolean verifyChecksum() {
+        if (null == this.wireData)
+            return InternetChecksum.isValid(InternetChecksum.sum(serialize(),
+                    0, this.headerLength * 4, 0));
+        int length = Math.min(this.headerLength * 4, this.wireLength);
+        return InternetChecksum.isValid(InternetChecksum.sum(this.wireData,
+                this.wireOffset, length, 0));
+    }
+
     @Override
     public void resetChecksum() {
         this.checksum = 0;
         super.resetChecksum();
     }
 
+    /**
+     * Adjust the checksum for a change to a 16-bit word of the header,
+     * unless the checksum is 0 and will be computed by serialize().
+     * @param oldWord the word before the change
+     * @param newWord the word after the change
+     */
+    protected void updateChecksum(short oldWord, short newWord) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateWord(this.checksum, oldWord, newWord);
+    }
+
+    /**
+     * Adjust the IPv4 and transport checksums for a change to an address.
+     * The TCP and UDP checksums cover the addresses through their
+     * pseudo-header; an undecoded transport header is adjusted in a copy of
+     * the raw payload, since the buffer it was read from belongs to the
+     * caller.
+     * @param oldAddress the address before the change
+     * @param newAddress the address after the change
+     */
+    protected void updateAddressChecksums(int oldAddress, int newAddress) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateInt(this.checksum, oldAddress, newAddress);
+
+        if (isPayloadRaw()) {
+            int checksumOffset;
+            if (this.protocol == PROTOCOL_TCP)
+                checksumOffset = 16;
+            else if (this.protocol == PROTOCOL_UDP)
+                checksumOffset = 6;
+            else
+                return;
+            if (this.rawPayloadLength < checksumOffset + 2)
+                return;
+            int offset = this.rawPayloadOffset + checksumOffset;
+            short checksum = (short) (((this.rawPayload[offset] & 0xff) << 8)
+                    | (this.rawPayload[offset + 1] & 0xff));
+            if (checksum == 0)
+                return;
+            checksum = InternetChecksum.updateInt(checksum, oldAddress, newAddress);
+            this.rawPayload = Arrays.copyOfRange(this.rawPayload,
+                    this.rawPayloadOffset,
+                    this.rawPayloadOffset + this.rawPayloadLength);
+            this.rawPayloadOffset = 0;
+            offset = checksumOffset;
+            this.rawPayload[offset] = (byte) (checksum >>> 8);
+            this.rawPayload[offset + 1] = (byte) checksum;
+        } else if (this.payload instanceof TCP) {
+            ((TCP) this.payload).updateAddress(oldAddress, newAddress);
+        } else if (this.payload instanceof UDP) {
+            ((UDP) this.payload).updateAddress(oldAddress, newAddress);
+        }
+    }
+
     /**
      * @return the sourceAddress
      */
@@ -226,6 +360,7 @@ public class IPv4 extends BasePacket {
      * @param sourceAddress the sourceAddress to set
      */
     public IPv4 setSourceAddress(int sourceAddress) {
+        updateAddressChecksums(this.sourceAddress, sourceAddress);
         this.sourceAddress = sourceAddress;
         return this;
     }
@@ -234,8 +369,7 @@ public class IPv4 extends BasePacket {
      * @param sourceAddress the sourceAddress to set
      */
     public IPv4 setSourceAddress(String sourceAddress) {
-        this.sourceAddress = IPv4.toIPv4Address(sourceAddress);
-        return this;
+        return setSourceAddress(IPv4.toIPv4Address(sourceAddress));
     }
 
     /**
@@ -249,6 +383,7 @@ public class IPv4 extends BasePacket {
      * @param destinationAddress the destinationAddress to set
      */
     public IPv4 setDestinationAddress(int destinationAddress) {
+        updateAddressChecksums(this.destinationAddress, destinationAddress);
         this.destinationAddress = destinationAddress;
         return this;
     }
@@ -257,8 +392,7 @@ public class IPv4 extends BasePacket {
      * @param destinationAddress the destinationAddress to set
      */
     public IPv4 setDestinationAddress(String destinationAddress) {
-        this.destinationAddress = IPv4.toIPv4Address(destinationAddress);
-        return this;
+        return setDestinationAddress(IPv4.toIPv4Address(destinationAddress));
     }
 
     /**
@@ -287,57 +421,51 @@ public class IPv4 extends BasePacket {
      *      -totalLength : 0
      */
     public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
+        return serializeToArray();
+    }
 
+    @Override
+    public int serializeInto(ByteBuffer dst) {
+        int start = dst.position();
         int optionsLength = 0;
         if (this.options != null)
             optionsLength = this.options.length / 4;
         this.headerLength = (byte) (5 + optionsLength);
 
-        this.totalLength = (short) (this.headerLength * 4 + ((payloadData == null) ? 0
-                : payloadData.length));
-
-        byte[] data = new byte[this.totalLength];
-        ByteBuffer bb = ByteBuffer.wrap(data);
-
-        bb.put((byte) (((this.version & 0xf) << 4) | (this.headerLength & 0xf)));
-        bb.put(this.diffServ);
-        bb.putShort(this.totalLength);
-        bb.putShort(this.identification);
-        bb.putShort((short) (((this.flags & 0x7) << 13) | (this.fragmentOffset & 0x1fff)));
-        bb.put(this.ttl);
-        bb.put(this.protocol);
-        bb.putShort(this.checksum);
-        bb.putInt(this.sourceAddress);
-        bb.putInt(this.destinationAddress);
+        dst.put((byte) (((this.version & 0xf) << 4) | (this.headerLength & 0xf)));
+        dst.put(this.diffServ);
+        dst.putShort((short) 0); // total length, filled in below
+        dst.putShort(this.identification);
+        dst.putShort((short) (((this.flags & 0x7) << 13) | (this.fragmentOffset & 0x1fff)));
+        dst.put(this.ttl);
+        dst.put(this.protocol);
+        dst.putShort(this.checksum);
+        dst.putInt(this.sourceAddress);
+        dst.putInt(this.destinationAddress);
         if (this.options != null)
-            bb.put(this.options);
-        if (payloadData != null)
-            bb.put(payloadData);
+            dst.put(this.options);
+        serializePayloadInto(dst);
+
+        // the payload may have set the protocol, and so adjusted the
+        // checksum, while it was serialized
+        short totalLength = (short) (dst.position() - start);
+        updateChecksum(this.totalLength, totalLength);
+        this.totalLength = totalLength;
+        dst.putShort(start + 2, this.totalLength);
+        dst.put(start + 9, this.protocol);
 
         // compute checksum if needed
-        if (this.checksum == 0) {
-            bb.rewind();
-            int accumulation = 0;
-            for (int i = 0; i < this.headerLength * 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(10, this.checksum);
-        }
-        return data;
+        if (this.checksum == 0)
+            this.checksum = InternetChecksum.checksum(dst, start, this.headerLength * 4, 0);
+        dst.putShort(start + 10, this.checksum);
+        return dst.position() - start;
     }
 
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
         short sscratch;
+        this.setWireData(data, offset, length);
 
         this.version = bb.get();
         this.headerLength = (byte) (this.version & 0xf);
@@ -360,19 +488,12 @@ public class IPv4 extends BasePacket {
             bb.get(this.options);
         }
 
-        IPacket payload;
-        if (IPv4.protocolClassMap.containsKey(this.protocol)) {
-            Class<? extends IPacket> clazz = IPv4.protocolClassMap.get(this.protocol);
-            try {
-                payload = clazz.newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Error parsing payload for IPv4 packet", e);
-            }
-        } else {
-            payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        // Bytes past the total length (e.g., Ethernet padding) are not part
+        // of the payload
+        int payloadLength = Math.min(bb.limit() - bb.position(),
+                (this.totalLength & 0xffff) - this.headerLength * 4);
+        this.setRawPayload(protocolFactories.getOrData(this.protocol),
+                data, bb.position(), Math.max(payloadLength, 0));
 
         if (this.totalLength != length)
             this.isTruncated = true;
@@ -0,0 +1,209 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * A flyweight view of an IPv4 header within a received frame. Fields are read
+ * and written directly in the underlying buffer; unlike {@link IPv4}, neither
+ * the options nor the payload are copied. Views are not thread-safe.
+ */
+public class IPv4View {
+    /** Length of an IPv4 header without options */
+    public static final int MIN_HEADER_LENGTH = 20;
+
+    protected byte[] data;
+    protected int offset;
+    protected int length;
+
+    /**
+     * Point this view at an IPv4 packet.
+     * @param data buffer containing the packet
+     * @param offset offset of the packet in the buffer
+     * @param length number of bytes available for the packet
+     * @return this view, or null if the bytes do not hold a complete IPv4
+     *         header
+     */
+    public IPv4View wrap(byte[] data, int offset, int length) {
+        if (length < MIN_HEADER_LENGTH)
+            return null;
+        int versionAndLength = data[offset] & 0xff;
+        int headerLength = (versionAndLength & 0x0f) * 4;
+        if ((versionAndLength >>> 4) != 4 || headerLength < MIN_HEADER_LENGTH
+                || headerLength > length)
+            return null;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    /**
+     * @return the buffer containing the packet
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return offset of the packet in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the headerLength, in 32-bit words
+     */
+    public byte getHeaderLength() {
+        return (byte) (data[offset] & 0x0f);
+    }
+
+    /**
+     * @return the diffServ
+     */
+    public byte getDiffServ() {
+        return data[offset + 1];
+    }
+
+    /**
+     * @return the totalLength
+     */
+    public short getTotalLength() {
+        return Views.getShort(data, offset + 2);
+    }
+
+    /**
+     * @return the identification
+     */
+    public short getIdentification() {
+        return Views.getShort(data, offset + 4);
+    }
+
+    /**
+     * @return true if the packet is a fragment of a larger datagram: more
+     *         fragments follow it, or its fragment offset is not zero
+     */
+    public boolean isFragment() {
+        return (Views.getShort(data, offset + 6) & 0x3fff) != 0;
+    }
+
+    /**
+     * @return the ttl
+     */
+    public byte getTtl() {
+        return data[offset + 8];
+    }
+
+    /**
+     * Set the ttl, adjusting the header checksum to match.
+     * @param ttl the ttl to set
+     */
+    public IPv4View setTtl(byte ttl) {
+        setChecksum(InternetChecksum.updateWord(getChecksum(),
+                (short) (getTtl() << 8), (short) (ttl << 8)));
+        data[offset + 8] = ttl;
+        return this;
+    }
+
+    /**
+     * @return the protocol
+     */
+    public byte getProtocol() {
+        return data[offset + 9];
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return Views.getShort(data, offset + 10);
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public IPv4View setChecksum(short checksum) {
+        Views.putShort(data, offset + 10, checksum);
+        return this;
+    }
+
+    /**
+     * @return the sourceAddress
+     */
+    public int getSourceAddress() {
+        return Views.getInt(data, offset + 12);
+    }
+
+    /**
+     * Set the sourceAddress, adjusting the header checksum to match. The
+     * transport checksum must be adjusted separately, with
+     * {@link L4View#updateAddress(int, int)}.
+     * @param sourceAddress the sourceAddress to set
+     */
+    public IPv4View setSourceAddress(int sourceAddress) {
+        setChecksum(InternetChecksum.updateInt(getChecksum(),
+                getSourceAddress(), sourceAddress));
+        Views.putInt(data, offset + 12, sourceAddress);
+        return this;
+    }
+
+    /**
+     * @return the destinationAddress
+     */
+    public int getDestinationAddress() {
+        return Views.getInt(data, offset + 16);
+    }
+
+    /**
+     * Set the destinationAddress, adjusting the header checksum to match.
+     * The transport checksum must be adjusted separately, with
+     * {@link L4View#updateAddress(int, int)}.
+     * @param destinationAddress the destinationAddress to set
+     */
+    public IPv4View setDestinationAddress(int destinationAddress) {
+        setChecksum(InternetChecksum.updateInt(getChecksum(),
+                getDestinationAddress(), destinationAddress));
+        Views.putInt(data, offset + 16, destinationAddress);
+        return this;
+    }
+
+    /**
+     * Compute the header checksum, treating the checksum field as zero.
+     * @return the checksum the header should carry
+     */
+    public short computeChecksum() {
+        int headerLength = getHeaderLength() * 4;
+        int sum = InternetChecksum.sum(data, offset, 10, 0);
+        sum = InternetChecksum.sum(data, offset + 12, headerLength - 12, sum);
+        return (short) ~sum;
+    }
+
+    /**
+     * @return true if the header checksum is correct, otherwise false
+     */
+    public boolean isChecksumValid() {
+        return InternetChecksum.isValid(InternetChecksum.sum(data, offset,
+                getHeaderLength() * 4, 0));
+    }
+
+    /**
+     * Recompute the header checksum after fields have been modified.
+     */
+    public IPv4View updateChecksum() {
+        return setChecksum(computeChecksum());
+    }
+
+    /**
+     * @return offset of the payload in the buffer
+     */
+    public int getPayloadOffset() {
+        return offset + getHeaderLength() * 4;
+    }
+
+    /**
+     * @return length of the payload, according to the totalLength but limited
+     *         to the bytes actually present
+     */
+    public int getPayloadLength() {
+        int totalLength = Math.min(getTotalLength() & 0xffff, length);
+        return Math.max(totalLength - getHeaderLength() * 4, 0);
+    }
+}
@@ -0,0 +1,176 @@
+package net.floodlightcontroller.packet;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Internet checksum (RFC 1071) used by IPv4, ICMP, TCP and UDP; every
+ * codec computes, verifies and updates its checksum here.
+ *
+ * When a field covered by a checksum changes, the checksum can be updated
+ * from the old and new values of the field alone, as described in RFC 1624,
+ * rather than recomputed over the whole header and payload:
+ * <pre>
+ *     HC' = ~(~HC + ~m + m')
+ * </pre>
+ * Updating a checksum this way costs a few arithmetic operations regardless
+ * of the size of the data it covers.
+ *
+ * A received checksum is verified by summing the bytes it covers, checksum
+ * field included; the folded sum of valid data is 0xffff.
+ */
+public final class InternetChecksum {
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(
+            long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(
+            int[].class, ByteOrder.BIG_ENDIAN);
+
+    private InternetChecksum() {
+    }
+
+    /**
+     * Compute the ones'-complement sum of bytes, taken as big-endian 16-bit
+     * words; an odd final byte is padded with zero. The bytes are read eight
+     * at a time, and each 64-bit read is added as two 32-bit halves, which is
+     * equivalent because the sum is taken modulo 0xffff.
+     * @param data buffer holding the bytes
+     * @param offset offset of the first byte
+     * @param length number of bytes
+     * @param initial sum to add to, e.g., the sum of a pseudo-header
+     * @return the sum, folded to 16 bits
+     */
+    public static int sum(byte[] data, int offset, int length, int initial) {
+        long sum = initial & 0xffffffffL;
+        int i = offset;
+        int end = offset + length;
+        for (; i <= end - 8; i += 8) {
+            long word = (long) LONG.get(data, i);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        if (i <= end - 4) {
+            sum += (int) INT.get(data, i) & 0xffffffffL;
+            i += 4;
+        }
+        if (i <= end - 2) {
+            sum += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+            i += 2;
+        }
+        if (i < end) {
+            sum += (data[i] & 0xff) << 8;
+        }
+        return fold(sum);
+    }
+
+    /**
+     * Compute the ones'-complement sum of bytes in a buffer, as
+     * {@link #sum(byte[], int, int, int)} does.
+     * @param bb buffer holding the bytes; its position is not changed
+     * @param offset absolute offset of the first byte
+     * @param length number of bytes
+     * @param initial sum to add to, e.g., the sum of a pseudo-header
+     * @return the sum, folded to 16 bits
+     */
+    public static int sum(ByteBuffer bb, int offset, int length, int initial) {
+        if (bb.hasArray())
+            return sum(bb.array(), bb.arrayOffset() + offset, length, initial);
+
+        boolean bigEndian = (bb.order() == ByteOrder.BIG_ENDIAN);
+        long sum = initial & 0xffffffffL;
+        int i = offset;
+        int end = offset + length;
+        for (; i <= end - 8; i += 8) {
+            long word = bb.getLong(i);
+            if (!bigEndian)
+                word = Long.reverseBytes(word);
+            sum += (word >>> 32) + (word & 0xffffffffL);
+        }
+        for (; i <= end - 2; i += 2) {
+            sum += ((bb.get(i) & 0xff) << 8) | (bb.get(i + 1) & 0xff);
+        }
+        if (i < end) {
+            sum += (bb.get(i) & 0xff) << 8;
+        }
+        return fold(sum);
+    }
+
+    /**
+     * Compute the checksum to store for bytes whose checksum field is zero.
+     * @param bb buffer holding the bytes
+     * @param offset absolute offset of the first byte
+     * @param length number of bytes
+     * @param initial sum of any pseudo-header
+     * @return the checksum
+     */
+    public static short checksum(ByteBuffer bb, int offset, int length, int initial) {
+        return (short) ~sum(bb, offset, length, initial);
+    }
+
+    /**
+     * @param sourceAddress source address of the IPv4 packet
+     * @param destinationAddress destination address of the IPv4 packet
+     * @param protocol protocol of the IPv4 packet
+     * @param length length of the transport header and payload
+     * @return the sum of the TCP/UDP pseudo-header, folded to 16 bits
+     */
+    public static int pseudoHeaderSum(int sourceAddress, int destinationAddress,
+            byte protocol, int length) {
+        long sum = (sourceAddress >>> 16) + (sourceAddress & 0xffff)
+                + (destinationAddress >>> 16) + (destinationAddress & 0xffff)
+                + (protocol & 0xff) + (length & 0xffff);
+        return fold(sum);
+    }
+
+    /**
+     * Fold the carries of a ones'-complement sum back into its low 16 bits.
+     * @param sum the sum
+     * @return the sum, folded to 16 bits
+     */
+    public static int fold(long sum) {
+        while ((sum >>> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >>> 16);
+        }
+        return (int) sum;
+    }
+
+    /**
+     * @param sum sum of the bytes covered by a checksum, including the
+     *        checksum itself, folded to 16 bits
+     * @return true if the checksum is correct
+     */
+    public static boolean isValid(int sum) {
+        return sum == 0xffff;
+    }
+
+    /**
+     * Update a checksum after a 16-bit word it covers has changed.
+     * @param checksum the checksum before the change
+     * @param oldWord the value of the word before the change
+     * @param newWord the value of the word after the change
+     * @return the checksum after the change
+     */
+    public static short updateWord(short checksum, short oldWord, short newWord) {
+        int sum = (~checksum & 0xffff) + (~oldWord & 0xffff) + (newWord & 0xffff);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        return (short) ~sum;
+    }
+
+    /**
+     * Update a checksum after a 32-bit value it covers (e.g., an IPv4
+     * address) has changed.
+     * @param checksum the checksum before the change
+     * @param oldValue the value before the change
+     * @param newValue the value after the change
+     * @return the checksum after the change
+     */
+    public static short updateInt(short checksum, int oldValue, int newValue) {
+        int sum = (~checksum & 0xffff)
+                + (~oldValue >>> 16) + (~oldValue & 0xffff)
+                + (newValue >>> 16) + (newValue & 0xffff);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        sum = (sum & 0xffff) + (sum >>> 16);
+        return (short) ~sum;
+    }
+}
@@ -0,0 +1,184 @@
+package net.floodlightcontroller.packet;
+
+/**
+ * A flyweight view of the transport header carried by an IPv4 packet: the
+ * ports and checksum of TCP and UDP, or the type, code and checksum of ICMP.
+ * Fields are read and written directly in the underlying buffer. Views are
+ * not thread-safe.
+ */
+public class L4View {
+    protected byte[] data;
+    protected int offset;
+    protected int length;
+    protected byte protocol;
+
+    /**
+     * Point this view at a transport header.
+     * @param data buffer containing the header
+     * @param offset offset of the header in the buffer
+     * @param length number of bytes available for the header and payload
+     * @param protocol IPv4 protocol number of the header
+     * @return this view, or null if the protocol is not TCP, UDP or ICMP, or
+     *         the bytes are too short to hold its header
+     */
+    public L4View wrap(byte[] data, int offset, int length, byte protocol) {
+        int headerLength;
+        switch (protocol) {
+        case IPv4.PROTOCOL_TCP:
+            headerLength = 20;
+            break;
+        case IPv4.PROTOCOL_UDP:
+            headerLength = 8;
+            break;
+        case IPv4.PROTOCOL_ICMP:
+            headerLength = 4;
+            break;
+        default:
+            return null;
+        }
+        if (length < headerLength)
+            return null;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+        this.protocol = protocol;
+        return this;
+    }
+
+    /**
+     * @return IPv4 protocol number of the header
+     */
+    public byte getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return true if the header carries ports (TCP or UDP)
+     */
+    public boolean hasPorts() {
+        return protocol != IPv4.PROTOCOL_ICMP;
+    }
+
+    /**
+     * @return the sourcePort; only meaningful if the header has ports
+     */
+    public short getSourcePort() {
+        return Views.getShort(data, offset);
+    }
+
+    /**
+     * Set the sourcePort, adjusting the checksum to match.
+     * @param sourcePort the sourcePort to set; only meaningful if the header
+     *        has ports
+     */
+    public L4View setSourcePort(short sourcePort) {
+        updateChecksum(getSourcePort(), sourcePort);
+        Views.putShort(data, offset, sourcePort);
+        return this;
+    }
+
+    /**
+     * @return the destinationPort; only meaningful if the header has ports
+     */
+    public short getDestinationPort() {
+        return Views.getShort(data, offset + 2);
+    }
+
+    /**
+     * Set the destinationPort, adjusting the checksum to match.
+     * @param destinationPort the destinationPort to set; only meaningful if
+     *        the header has ports
+     */
+    public L4View setDestinationPort(short destinationPort) {
+        updateChecksum(getDestinationPort(), destinationPort);
+        Views.putShort(data, offset + 2, destinationPort);
+        return this;
+    }
+
+    /**
+     * @return the icmpType; only meaningful for ICMP
+     */
+    public byte getIcmpType() {
+        return data[offset];
+    }
+
+    /**
+     * @return the icmpCode; only meaningful for ICMP
+     */
+    public byte getIcmpCode() {
+        return data[offset + 1];
+    }
+
+    /**
+     * @return offset of the checksum field within the header
+     */
+    protected int checksumOffset() {
+        switch (protocol) {
+        case IPv4.PROTOCOL_TCP:
+            return 16;
+        case IPv4.PROTOCOL_UDP:
+            return 6;
+        default:
+            return 2;
+        }
+    }
+
+    /**
+     * @return the checksum
+     */
+    public short getChecksum() {
+        return Views.getShort(data, offset + checksumOffset());
+    }
+
+    /**
+     * @param checksum the checksum to set
+     */
+    public L4View setChecksum(short checksum) {
+        Views.putShort(data, offset + checksumOffset(), checksum);
+        return this;
+    }
+
+    /**
+     * Adjust the checksum for a change to a 16-bit word it covers. A UDP
+     * checksum of 0 means the sender did not compute one, so it is left
+     * alone.
+     * @param oldWord the word before the change
+     * @param newWord the word after the change
+     */
+    protected void updateChecksum(short oldWord, short newWord) {
+        short checksum = getChecksum();
+        if (protocol == IPv4.PROTOCOL_UDP && checksum == 0)
+            return;
+        setChecksum(InternetChecksum.updateWord(checksum, oldWord, newWord));
+    }
+
+    /**
+     * Adjust the checksum for a change to an address in the IPv4 header,
+     * which TCP and UDP checksums cover through their pseudo-header.
+     * @param oldAddress the address before the change
+     * @param newAddress the address after the change
+     */
+    public L4View updateAddress(int oldAddress, int newAddress) {
+        if (!hasPorts())
+            return this;
+        short checksum = getChecksum();
+        if (protocol == IPv4.PROTOCOL_UDP && checksum == 0)
+            return this;
+        setChecksum(InternetChecksum.updateInt(checksum, oldAddress, newAddress));
+        return this;
+    }
+
+    /**
+     * @return offset of the header in the buffer
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return number of bytes in the header and payload
+     */
+    public int getLength() {
+        return length;
+    }
+}
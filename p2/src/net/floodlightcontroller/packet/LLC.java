@@ -29,6 +29,26 @@ public class LLC extends BasePacket {
     private byte dsap = 0;
     private byte ssap = 0;
     private byte ctrl = 0;
+
+    public LLC() {
+    }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public LLC(LLC other) {
+        super(other);
+        this.dsap = other.dsap;
+        this.ssap = other.ssap;
+        this.ctrl = other.ctrl;
+    }
+
+    @Override
+    public LLC copy() {
+        return new LLC(this);
+    }
     
     public byte getDsap() {
         return dsap;
@@ -40,6 +40,28 @@ public class LLDP extends BasePacket {
         this.ethType = Ethernet.TYPE_LLDP;
     }
 
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public LLDP(LLDP other) {
+        super(other);
+        this.chassisId = (null == other.chassisId) ? null : other.chassisId.copy();
+        this.portId = (null == other.portId) ? null : other.portId.copy();
+        this.ttl = (null == other.ttl) ? null : other.ttl.copy();
+        this.optionalTLVList = new ArrayList<LLDPTLV>(other.optionalTLVList.size());
+        for (LLDPTLV tlv : other.optionalTLVList) {
+            this.optionalTLVList.add(tlv.copy());
+        }
+        this.ethType = other.ethType;
+    }
+
+    @Override
+    public LLDP copy() {
+        return new LLDP(this);
+    }
+
     /**
      * @return the chassisId
      */
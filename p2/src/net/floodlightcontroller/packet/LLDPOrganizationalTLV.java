@@ -37,6 +37,24 @@ public class LLDPOrganizationalTLV extends LLDPTLV {
         type = ORGANIZATIONAL_TLV_TYPE;
     }
 
+    /**
+     * Create a copy of a TLV.
+     * @param other the TLV to copy
+     */
+    public LLDPOrganizationalTLV(LLDPOrganizationalTLV other) {
+        super(other);
+        this.oui = (null == other.oui) ? null
+                : Arrays.copyOf(other.oui, other.oui.length);
+        this.subType = other.subType;
+        this.infoString = (null == other.infoString) ? null
+                : Arrays.copyOf(other.infoString, other.infoString.length);
+    }
+
+    @Override
+    public LLDPOrganizationalTLV copy() {
+        return new LLDPOrganizationalTLV(this);
+    }
+
     /**
      * Set the value of OUI.
      * @param oui The value of OUI to be set.
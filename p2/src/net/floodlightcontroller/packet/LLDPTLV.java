@@ -30,6 +30,27 @@ public class LLDPTLV {
     protected short length;
     protected byte[] value;
 
+    public LLDPTLV() {
+    }
+
+    /**
+     * Create a copy of a TLV.
+     * @param other the TLV to copy
+     */
+    public LLDPTLV(LLDPTLV other) {
+        this.type = other.type;
+        this.length = other.length;
+        this.value = (null == other.value) ? null
+                : Arrays.copyOf(other.value, other.value.length);
+    }
+
+    /**
+     * @return a copy of this TLV
+     */
+    public LLDPTLV copy() {
+        return new LLDPTLV(this);
+    }
+
     /**
      * @return the type
      */
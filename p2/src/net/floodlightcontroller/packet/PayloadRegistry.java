@@ -0,0 +1,63 @@
+package net.floodlightcontroller.packet;
+
+import java.util.function.Supplier;
+
+/**
+ * Maps the values of a header field (an etherType, IP protocol or port) to
+ * factories for the packet class that decodes the payload those values
+ * identify. Factories are constructor references, e.g., {@code IPv4::new},
+ * stored in a table indexed by the field value, so finding one neither boxes
+ * the value nor uses reflection. Registrations are expected to happen during
+ * class initialization; lookups are not synchronized with them.
+ */
+public class PayloadRegistry {
+    private final Supplier<?>[] factories;
+    private final int mask;
+
+    /**
+     * Create an empty registry.
+     * @param keyBits number of bits in the header field
+     */
+    public PayloadRegistry(int keyBits) {
+        this.factories = new Supplier<?>[1 << keyBits];
+        this.mask = (1 << keyBits) - 1;
+    }
+
+    /**
+     * Register the factory for the payload identified by a field value.
+     * @param key value of the header field
+     * @param factory creates an empty packet that can decode the payload
+     * @return this registry
+     */
+    public PayloadRegistry register(int key, Supplier<? extends IPacket> factory) {
+        this.factories[key & mask] = factory;
+        return this;
+    }
+
+    /**
+     * @param key value of the header field
+     * @return true if a factory is registered for the value
+     */
+    public boolean contains(int key) {
+        return this.factories[key & mask] != null;
+    }
+
+    /**
+     * @param key value of the header field
+     * @return the factory registered for the value, or null if none is
+     */
+    @SuppressWarnings("unchecked")
+    public Supplier<? extends IPacket> get(int key) {
+        return (Supplier<? extends IPacket>) this.factories[key & mask];
+    }
+
+    /**
+     * @param key value of the header field
+     * @return the factory registered for the value, or a factory for
+     *         {@link Data} if none is
+     */
+    public Supplier<? extends IPacket> getOrData(int key) {
+        Supplier<? extends IPacket> factory = get(key);
+        return (null == factory) ? BasePacket.DATA_FACTORY : factory;
+    }
+}
@@ -21,6 +21,25 @@ public class RIPv2 extends BasePacket
         this.entries = new LinkedList<RIPv2Entry>();
     }
 
+	/**
+	 * Create a copy of a packet, field by field, without serializing 
+	 * anything. The copy has the same parent as the original.
+	 * @param other the packet to copy
+	 */
+	public RIPv2(RIPv2 other)
+	{
+		super(other);
+		this.command = other.command;
+		this.version = other.version;
+		this.entries = new LinkedList<RIPv2Entry>();
+		for (RIPv2Entry entry : other.entries)
+		{ this.entries.add(new RIPv2Entry(entry)); }
+	}
+
+	@Override
+	public RIPv2 copy()
+	{ return new RIPv2(this); }
+
 	public void setEntries(List<RIPv2Entry> entries)
 	{ this.entries = entries; }
 
@@ -41,15 +60,20 @@ public class RIPv2 extends BasePacket
     {
 		int length = 1 + 1 + 2 + this.entries.size() * (5*4);
 		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
+		this.serializeInto(ByteBuffer.wrap(data));
+		return data;
+	}
 
-		bb.put(this.command);
-		bb.put(this.version);
-		bb.putShort((short)0); // Put padding
+	@Override
+	public int serializeInto(ByteBuffer dst) 
+	{
+		int start = dst.position();
+		dst.put(this.command);
+		dst.put(this.version);
+		dst.putShort((short)0); // Put padding
 		for (RIPv2Entry entry : this.entries)
-		{ bb.put(entry.serialize()); }
-
-		return data;
+		{ entry.serializeInto(dst); }
+		return dst.position() - start;
 	}
 
 	@Override
@@ -15,7 +15,9 @@ public class RIPv2Entry
 	protected int subnetMask;
 	protected int nextHopAddress;
 	protected int metric;
-	protected String interfaceName;
+	/** Index of the router interface through which the entry's route is
+	 * reached; not part of the packet, and -1 if unknown */
+	protected int interfaceIndex = -1;
 
 	public RIPv2Entry()
     { }
@@ -28,6 +30,21 @@ public class RIPv2Entry
         this.metric = metric;
     }
 
+	/**
+	 * Create a copy of an entry.
+	 * @param other the entry to copy
+	 */
+	public RIPv2Entry(RIPv2Entry other)
+	{
+		this.addressFamily = other.addressFamily;
+		this.routeTag = other.routeTag;
+		this.address = other.address;
+		this.subnetMask = other.subnetMask;
+		this.nextHopAddress = other.nextHopAddress;
+		this.metric = other.metric;
+		this.interfaceIndex = other.interfaceIndex;
+	}
+
 	public String toString()
 	{
         return String.format("RIPv2Entry : {addressFamily=%d, routeTag=%d, address=%s, subnetMask=%s, nextHopAddress=%s, metric=%d}", 
@@ -55,12 +72,12 @@ public class RIPv2Entry
 	public void setAddress(int address)
 	{ this.address = address; }
 	
-    public String getInterfaceName() {
-		return interfaceName;
+    public int getInterfaceIndex() {
+		return interfaceIndex;
 	}
 
-	public void setInterfaceName(String interfaceName) {
-		this.interfaceName = interfaceName;
+	public void setInterfaceIndex(int interfaceIndex) {
+		this.interfaceIndex = interfaceIndex;
 	}
 
 	public int getSubnetMask()
@@ -85,17 +102,21 @@ public class RIPv2Entry
     {
 		int length = 2*2 + 4*4;
 		byte[] data = new byte[length];
-		ByteBuffer bb = ByteBuffer.wrap(data);
-
-		bb.putShort(this.addressFamily);
-		bb.putShort(this.routeTag);
-        bb.putInt(this.address);
-        bb.putInt(this.subnetMask);
-        bb.putInt(this.nextHopAddress);
-        bb.putInt(this.metric);
+		this.serializeInto(ByteBuffer.wrap(data));
 		return data;
 	}
 
+	public int serializeInto(ByteBuffer dst) 
+    {
+		dst.putShort(this.addressFamily);
+		dst.putShort(this.routeTag);
+        dst.putInt(this.address);
+        dst.putInt(this.subnetMask);
+        dst.putInt(this.nextHopAddress);
+        dst.putInt(this.metric);
+		return 2*2 + 4*4;
+	}
+
 	public RIPv2Entry deserialize(byte[] data, int offset, int length) 
 	{
 		ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
@@ -35,6 +35,33 @@ public class TCP extends BasePacket {
     protected short urgentPointer;
     protected byte[] options;
 
+    public TCP() {
+    }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public TCP(TCP other) {
+        super(other);
+        this.sourcePort = other.sourcePort;
+        this.destinationPort = other.destinationPort;
+        this.sequence = other.sequence;
+        this.acknowledge = other.acknowledge;
+        this.dataOffset = other.dataOffset;
+        this.flags = other.flags;
+        this.windowSize = other.windowSize;
+        this.checksum = other.checksum;
+        this.urgentPointer = other.urgentPointer;
+        this.options = copyOf(other.options);
+    }
+
+    @Override
+    public TCP copy() {
+        return new TCP(this);
+    }
+
     /**
      * @return the sourcePort
      */
@@ -46,6 +73,7 @@ public class TCP extends BasePacket {
      * @param sourcePort the sourcePort to set
      */
     public TCP setSourcePort(short sourcePort) {
+        updateChecksum(this.sourcePort, sourcePort);
         this.sourcePort = sourcePort;
         return this;
     }
@@ -61,6 +89,7 @@ public class TCP extends BasePacket {
      * @param destinationPort the destinationPort to set
      */
     public TCP setDestinationPort(short destinationPort) {
+        updateChecksum(this.destinationPort, destinationPort);
         this.destinationPort = destinationPort;
         return this;
     }
@@ -76,6 +105,8 @@ public class TCP extends BasePacket {
         return this.sequence;
     }
     public TCP setSequence(int seq) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateInt(this.checksum, this.sequence, seq);
         this.sequence = seq;
         return this;
     }
@@ -83,6 +114,8 @@ public class TCP extends BasePacket {
         return this.acknowledge;
     }
     public TCP setAcknowledge(int ack) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateInt(this.checksum, this.acknowledge, ack);
         this.acknowledge = ack;
         return this;
     }
@@ -97,6 +130,8 @@ public class TCP extends BasePacket {
         return this.flags;
     }
     public TCP setFlags(short flags) {
+        updateChecksum((short) (this.flags | (this.dataOffset << 12)),
+                (short) (flags | (this.dataOffset << 12)));
         this.flags = flags;
         return this;
     }
@@ -104,6 +139,7 @@ public class TCP extends BasePacket {
         return this.windowSize;
     }
     public TCP setWindowSize(short windowSize) {
+        updateChecksum(this.windowSize, windowSize);
         this.windowSize = windowSize;
         return this;
     }
@@ -115,16 +151,49 @@ public class TCP extends BasePacket {
         return this;
     }
     
+    /**
+     * Verify the checksum against the bytes the packet was received as,
+     * without serializing it; modifications made since the packet was
+     * deserialized are not taken into account. The pseudo-header is taken from
+     * the enclosing IPv4 packet.
+     * @return true if the checksum is correct, otherwise false
+     */
+    public boolean verifyChecksum() {
+        return InternetChecksum.isValid(sumReceived(true));
+    }
+
     @Override
     public void resetChecksum() {
         this.checksum = 0;
         super.resetChecksum();
     }
+
+    /**
+     * Adjust the checksum for a change to a 16-bit word it covers, unless
+     * the checksum is 0 and will be computed by serialize().
+     * @param oldWord the word before the change
+     * @param newWord the word after the change
+     */
+    protected void updateChecksum(short oldWord, short newWord) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateWord(this.checksum, oldWord, newWord);
+    }
+
+    /**
+     * Adjust the checksum for a change to an address in the pseudo-header.
+     * @param oldAddress the address before the change
+     * @param newAddress the address after the change
+     */
+    void updateAddress(int oldAddress, int newAddress) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateInt(this.checksum, oldAddress, newAddress);
+    }
     
     public short getUrgentPointer(short urgentPointer) {
         return this.urgentPointer;
     }
     public TCP setUrgentPointer(short urgentPointer) {
+        updateChecksum(this.urgentPointer, urgentPointer);
         this.urgentPointer= urgentPointer;
         return this;
     }
@@ -151,71 +220,52 @@ public class TCP extends BasePacket {
      *      -length : 0
      */
     public byte[] serialize() {
-        int length;
+        return serializeToArray();
+    }
+
+    @Override
+    public int serializeInto(ByteBuffer dst) {
+        int start = dst.position();
         if (dataOffset == 0)
             dataOffset = 5;  // default header length
-        length = dataOffset << 2;
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-            length += payloadData.length;
-        }
-
-        byte[] data = new byte[length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
 
-        bb.putShort(this.sourcePort);
-        bb.putShort(this.destinationPort);
-        bb.putInt(this.sequence);
-        bb.putInt(this.acknowledge);
-        bb.putShort((short) (this.flags | (dataOffset << 12)));
-        bb.putShort(this.windowSize);
-        bb.putShort(this.checksum);
-        bb.putShort(this.urgentPointer);
+        dst.putShort(this.sourcePort);
+        dst.putShort(this.destinationPort);
+        dst.putInt(this.sequence);
+        dst.putInt(this.acknowledge);
+        dst.putShort((short) (this.flags | (dataOffset << 12)));
+        dst.putShort(this.windowSize);
+        dst.putShort(this.checksum);
+        dst.putShort(this.urgentPointer);
         if (dataOffset > 5) {
             int padding;
-            bb.put(options);
+            dst.put(options);
             padding = (dataOffset << 2) - 20 - options.length;
             for (int i = 0; i < padding; i++)
-                bb.put((byte) 0);
+                dst.put((byte) 0);
         }
-        if (payloadData != null)
-            bb.put(payloadData);
+        serializePayloadInto(dst);
+        int length = dst.position() - start;
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_TCP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
             int accumulation = 0;
 
             // compute pseudo header mac
             if (this.parent != null && this.parent instanceof IPv4) {
                 IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += length & 0xffff;
-            }
-
-            for (int i = 0; i < length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
+                accumulation = InternetChecksum.pseudoHeaderSum(
+                        ipv4.getSourceAddress(), ipv4.getDestinationAddress(),
+                        ipv4.getProtocol(), length);
             }
 
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(16, this.checksum);
+            this.checksum = InternetChecksum.checksum(dst, start, length, accumulation);
+            dst.putShort(start + 16, this.checksum);
         }
-        return data;
+        return length;
     }
 
     /* (non-Javadoc)
@@ -259,6 +309,7 @@ public class TCP extends BasePacket {
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+        this.setWireData(data, offset, length);
         this.sourcePort = bb.getShort();
         this.destinationPort = bb.getShort();
         this.sequence = bb.getInt();
@@ -282,9 +333,7 @@ public class TCP extends BasePacket {
             }
         }
         
-        this.payload = new Data();
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        this.setRawPayload(DATA_FACTORY, data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 }
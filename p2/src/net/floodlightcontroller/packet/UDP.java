@@ -18,27 +18,26 @@
 package net.floodlightcontroller.packet;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  *
  * @author David Erickson (daviderickson@cs.stanford.edu)
  */
 public class UDP extends BasePacket {
-    public static Map<Short, Class<? extends IPacket>> decodeMap;
+    public static final PayloadRegistry portFactories;
     public static short DHCP_SERVER_PORT = (short)67;
     public static short DHCP_CLIENT_PORT = (short)68;
     public static short RIP_PORT = (short)520;
 
     static {
-        decodeMap = new HashMap<Short, Class<? extends IPacket>>();
+        portFactories = new PayloadRegistry(16);
         /*
          * Disable DHCP until the deserialize code is hardened to deal with garbage input
          */
-        UDP.decodeMap.put(DHCP_SERVER_PORT, DHCP.class);
-        UDP.decodeMap.put(DHCP_CLIENT_PORT, DHCP.class); 
-        UDP.decodeMap.put(RIP_PORT, RIPv2.class);
+        UDP.portFactories.register(DHCP_SERVER_PORT, DHCP::new);
+        UDP.portFactories.register(DHCP_CLIENT_PORT, DHCP::new);
+        UDP.portFactories.register(RIP_PORT, RIPv2::new);
     }
 
     protected short sourcePort;
@@ -46,6 +45,27 @@ public class UDP extends BasePacket {
     protected short length;
     protected short checksum;
 
+    public UDP() {
+    }
+
+    /**
+     * Create a copy of a packet and its payloads, field by field, without serializing
+     * anything. The copy has the same parent as the original.
+     * @param other the packet to copy
+     */
+    public UDP(UDP other) {
+        super(other);
+        this.sourcePort = other.sourcePort;
+        this.destinationPort = other.destinationPort;
+        this.length = other.length;
+        this.checksum = other.checksum;
+    }
+
+    @Override
+    public UDP copy() {
+        return new UDP(this);
+    }
+
     /**
      * @return the sourcePort
      */
@@ -57,6 +77,7 @@ public class UDP extends BasePacket {
      * @param sourcePort the sourcePort to set
      */
     public UDP setSourcePort(short sourcePort) {
+        updateChecksum(this.sourcePort, sourcePort);
         this.sourcePort = sourcePort;
         return this;
     }
@@ -72,6 +93,7 @@ public class UDP extends BasePacket {
      * @param destinationPort the destinationPort to set
      */
     public UDP setDestinationPort(short destinationPort) {
+        updateChecksum(this.destinationPort, destinationPort);
         this.destinationPort = destinationPort;
         return this;
     }
@@ -98,12 +120,47 @@ public class UDP extends BasePacket {
         return this;
     }
 
+    /**
+     * Verify the checksum against the bytes the packet was received as,
+     * without serializing it; modifications made since the packet was
+     * deserialized are not taken into account. The pseudo-header is taken from
+     * the enclosing IPv4 packet.
+     * @return true if the checksum is correct, otherwise false
+     */
+    public boolean verifyChecksum() {
+        // a checksum of 0 means the sender did not compute one
+        if (this.checksum == 0)
+            return true;
+        return InternetChecksum.isValid(sumReceived(true));
+    }
+
     @Override
     public void resetChecksum() {
         this.checksum = 0;
         super.resetChecksum();
     }
 
+    /**
+     * Adjust the checksum for a change to a 16-bit word it covers, unless
+     * the checksum is 0 and will be computed by serialize().
+     * @param oldWord the word before the change
+     * @param newWord the word after the change
+     */
+    protected void updateChecksum(short oldWord, short newWord) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateWord(this.checksum, oldWord, newWord);
+    }
+
+    /**
+     * Adjust the checksum for a change to an address in the pseudo-header.
+     * @param oldAddress the address before the change
+     * @param newAddress the address after the change
+     */
+    void updateAddress(int oldAddress, int newAddress) {
+        if (this.checksum != 0)
+            this.checksum = InternetChecksum.updateInt(this.checksum, oldAddress, newAddress);
+    }
+
     /**
      * Serializes the packet. Will compute and set the following fields if they
      * are set to specific values at the time serialize is called:
@@ -111,58 +168,41 @@ public class UDP extends BasePacket {
      *      -length : 0
      */
     public byte[] serialize() {
-        byte[] payloadData = null;
-        if (payload != null) {
-            payload.setParent(this);
-            payloadData = payload.serialize();
-        }
-
-        this.length = (short) (8 + ((payloadData == null) ? 0
-                : payloadData.length));
+        return serializeToArray();
+    }
 
-        byte[] data = new byte[this.length];
-        ByteBuffer bb = ByteBuffer.wrap(data);
+    @Override
+    public int serializeInto(ByteBuffer dst) {
+        int start = dst.position();
+        dst.putShort(this.sourcePort);
+        dst.putShort(this.destinationPort);
+        dst.putShort((short) 0); // length, filled in below
+        dst.putShort(this.checksum);
+        serializePayloadInto(dst);
 
-        bb.putShort(this.sourcePort);
-        bb.putShort(this.destinationPort);
-        bb.putShort(this.length);
-        bb.putShort(this.checksum);
-        if (payloadData != null)
-            bb.put(payloadData);
+        int length = dst.position() - start;
+        this.length = (short) length;
+        dst.putShort(start + 4, this.length);
 
         if (this.parent != null && this.parent instanceof IPv4)
             ((IPv4)this.parent).setProtocol(IPv4.PROTOCOL_UDP);
 
         // compute checksum if needed
         if (this.checksum == 0) {
-            bb.rewind();
             int accumulation = 0;
 
             // compute pseudo header mac
             if (this.parent != null && this.parent instanceof IPv4) {
                 IPv4 ipv4 = (IPv4) this.parent;
-                accumulation += ((ipv4.getSourceAddress() >> 16) & 0xffff)
-                        + (ipv4.getSourceAddress() & 0xffff);
-                accumulation += ((ipv4.getDestinationAddress() >> 16) & 0xffff)
-                        + (ipv4.getDestinationAddress() & 0xffff);
-                accumulation += ipv4.getProtocol() & 0xff;
-                accumulation += this.length & 0xffff;
-            }
-
-            for (int i = 0; i < this.length / 2; ++i) {
-                accumulation += 0xffff & bb.getShort();
-            }
-            // pad to an even number of shorts
-            if (this.length % 2 > 0) {
-                accumulation += (bb.get() & 0xff) << 8;
+                accumulation = InternetChecksum.pseudoHeaderSum(
+                        ipv4.getSourceAddress(), ipv4.getDestinationAddress(),
+                        ipv4.getProtocol(), length);
             }
 
-            accumulation = ((accumulation >> 16) & 0xffff)
-                    + (accumulation & 0xffff);
-            this.checksum = (short) (~accumulation & 0xffff);
-            bb.putShort(6, this.checksum);
+            this.checksum = InternetChecksum.checksum(dst, start, length, accumulation);
+            dst.putShort(start + 6, this.checksum);
         }
-        return data;
+        return length;
     }
 
     /* (non-Javadoc)
@@ -205,28 +245,16 @@ public class UDP extends BasePacket {
     @Override
     public IPacket deserialize(byte[] data, int offset, int length) {
         ByteBuffer bb = ByteBuffer.wrap(data, offset, length);
+        this.setWireData(data, offset, length);
         this.sourcePort = bb.getShort();
         this.destinationPort = bb.getShort();
         this.length = bb.getShort();
         this.checksum = bb.getShort();
 
-        if (UDP.decodeMap.containsKey(this.destinationPort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.destinationPort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else if (UDP.decodeMap.containsKey(this.sourcePort)) {
-            try {
-                this.payload = UDP.decodeMap.get(this.sourcePort).getConstructor().newInstance();
-            } catch (Exception e) {
-                throw new RuntimeException("Failure instantiating class", e);
-            }
-        } else {
-            this.payload = new Data();
-        }
-        this.payload = payload.deserialize(data, bb.position(), bb.limit()-bb.position());
-        this.payload.setParent(this);
+        Supplier<? extends IPacket> factory = UDP.portFactories.get(this.destinationPort);
+        if (null == factory)
+            factory = UDP.portFactories.getOrData(this.sourcePort);
+        this.setRawPayload(factory, data, bb.position(), bb.limit()-bb.position());
         return this;
     }
 }
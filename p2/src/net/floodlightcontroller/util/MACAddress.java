@@ -1,18 +1,34 @@
 package net.floodlightcontroller.util;
 
-import java.util.Arrays;
-
 /**
- * The class representing MAC address.
+ * The class representing MAC address. An address is held as a 48-bit value
+ * in the low bits of a {@code long}, so instances are immutable and small,
+ * and comparing, hashing or copying an address to or from a buffer never
+ * allocates.
  *
  * @author Sho Shimizu (sho.shimizu@gmail.com)
  */
 public class MACAddress {
     public static final int MAC_ADDRESS_LENGTH = 6;
-    private byte[] address = new byte[MAC_ADDRESS_LENGTH];
+
+    /** Mask selecting the 48 bits of a MAC address in a long */
+    public static final long MASK = 0xffffffffffffL;
+
+    /** The broadcast address, ff:ff:ff:ff:ff:ff */
+    public static final MACAddress BROADCAST = new MACAddress(MASK);
+
+    private final long address;
 
     public MACAddress(byte[] address) {
-        this.address = Arrays.copyOf(address, MAC_ADDRESS_LENGTH);
+        long value = 0;
+        for (int i = 0; i < MAC_ADDRESS_LENGTH && i < address.length; i++) {
+            value |= (address[i] & 0xffL) << ((5 - i) * 8);
+        }
+        this.address = value;
+    }
+
+    private MACAddress(long address) {
+        this.address = address & MASK;
     }
 
     /**
@@ -29,13 +45,13 @@ public class MACAddress {
                     " separated pairwise by :'s.");
         }
 
-        byte[] addressInBytes = new byte[MAC_ADDRESS_LENGTH];
+        long value = 0;
         for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
             String element = elements[i];
-            addressInBytes[i] = (byte)Integer.parseInt(element, 16);
+            value = (value << 8) | (Integer.parseInt(element, 16) & 0xff);
         }
 
-        return new MACAddress(addressInBytes);
+        return new MACAddress(value);
     }
 
     /**
@@ -60,16 +76,63 @@ public class MACAddress {
      * @throws IllegalArgumentException if the long value cannot be parsed as a MAC address.
      */
     public static MACAddress valueOf(long address) {
-        byte[] addressInBytes = new byte[] {
-                (byte)((address >> 40) & 0xff),
-                (byte)((address >> 32) & 0xff),
-                (byte)((address >> 24) & 0xff),
-                (byte)((address >> 16) & 0xff),
-                (byte)((address >> 8 ) & 0xff),
-                (byte)((address >> 0) & 0xff)
-        };
+        return new MACAddress(address);
+    }
 
-        return new MACAddress(addressInBytes);
+    /**
+     * Read a MAC address from a buffer without creating an instance.
+     * @param data buffer holding the address
+     * @param offset offset of the first byte of the address
+     * @return the address, in the lower 48 bits of a long
+     */
+    public static long readFrom(byte[] data, int offset) {
+        return ((data[offset] & 0xffL) << 40)
+                | ((data[offset + 1] & 0xffL) << 32)
+                | ((data[offset + 2] & 0xffL) << 24)
+                | ((data[offset + 3] & 0xffL) << 16)
+                | ((data[offset + 4] & 0xffL) << 8)
+                | (data[offset + 5] & 0xffL);
+    }
+
+    /**
+     * Write a MAC address into a buffer without creating an instance.
+     * @param address the address, in the lower 48 bits of a long
+     * @param data buffer to write into
+     * @param offset offset at which to write the first byte of the address
+     */
+    public static void writeTo(long address, byte[] data, int offset) {
+        data[offset] = (byte) (address >>> 40);
+        data[offset + 1] = (byte) (address >>> 32);
+        data[offset + 2] = (byte) (address >>> 24);
+        data[offset + 3] = (byte) (address >>> 16);
+        data[offset + 4] = (byte) (address >>> 8);
+        data[offset + 5] = (byte) address;
+    }
+
+    /**
+     * Write this MAC address into a buffer.
+     * @param data buffer to write into
+     * @param offset offset at which to write the first byte of the address
+     */
+    public void writeTo(byte[] data, int offset) {
+        writeTo(this.address, data, offset);
+    }
+
+    /**
+     * @param address a MAC address, in the lower 48 bits of a long
+     * @return {@code true} if the address is the broadcast address.
+     */
+    public static boolean isBroadcast(long address) {
+        return (address & MASK) == MASK;
+    }
+
+    /**
+     * @param address a MAC address, in the lower 48 bits of a long
+     * @return {@code true} if the address is a multicast address other than
+     *         the broadcast address.
+     */
+    public static boolean isMulticast(long address) {
+        return !isBroadcast(address) && (address & (1L << 40)) != 0;
     }
 
     /**
@@ -77,7 +140,7 @@ public class MACAddress {
      * @return the length of the {@code MACAddress}.
      */
     public int length() {
-        return address.length;
+        return MAC_ADDRESS_LENGTH;
     }
 
     /**
@@ -85,7 +148,9 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code byte} array.
      */
     public byte[] toBytes() {
-        return Arrays.copyOf(address, address.length);
+        byte[] bytes = new byte[MAC_ADDRESS_LENGTH];
+        writeTo(bytes, 0);
+        return bytes;
     }
 
     /**
@@ -93,12 +158,7 @@ public class MACAddress {
      * @return the numeric value represented by this object after conversion to type {@code long}.
      */
     public long toLong() {
-        long mac = 0;
-        for (int i = 0; i < 6; i++) {
-            long t = (address[i] & 0xffL) << ((5 - i) * 8);
-            mac |= t;
-        }
-        return mac;
+        return address;
     }
 
     /**
@@ -106,11 +166,7 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the broadcast address.
      */
     public boolean isBroadcast() {
-        for (byte b : address) {
-            if (b != -1) // checks if equal to 0xff
-                return false;
-        }
-        return true;
+        return isBroadcast(address);
     }
 
     /**
@@ -118,10 +174,17 @@ public class MACAddress {
      * @return {@code true} if the MAC address is the multicast address.
      */
     public boolean isMulticast() {
-        if (isBroadcast()) {
-            return false;
-        }
-        return (address[0] & 0x01) != 0;
+        return isMulticast(address);
+    }
+
+    /**
+     * Compares this MAC address with one held in a {@code long}, without
+     * creating an instance for it.
+     * @param address a MAC address, in the lower 48 bits of a long
+     * @return {@code true} if the addresses are the same.
+     */
+    public boolean matches(long address) {
+        return this.address == (address & MASK);
     }
 
     @Override
@@ -135,22 +198,24 @@ public class MACAddress {
         }
 
         MACAddress other = (MACAddress)o;
-        return Arrays.equals(this.address, other.address);
+        return this.address == other.address;
     }
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(this.address);
+        return Long.hashCode(this.address);
     }
 
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-        for (byte b: address) {
+        StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
             if (builder.length() > 0) {
                 builder.append(":");
             }
-            builder.append(String.format("%02X", b & 0xFF));
+            int b = (int) (address >>> shift) & 0xff;
+            builder.append(Character.toUpperCase(Character.forDigit(b >>> 4, 16)));
+            builder.append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
         }
         return builder.toString();
     }
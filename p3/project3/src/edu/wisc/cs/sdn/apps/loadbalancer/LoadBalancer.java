@@ -45,6 +45,7 @@ import org.slf4j.LoggerFactory;
 
 import edu.wisc.cs.sdn.apps.l3routing.IL3Routing;
 import edu.wisc.cs.sdn.apps.util.ArpServer;
+import edu.wisc.cs.sdn.apps.util.PacketIns;
 import edu.wisc.cs.sdn.apps.util.SwitchCommands;
 
 public class LoadBalancer implements IFloodlightModule, IOFSwitchListener,
@@ -193,10 +194,9 @@ IOFMessageListener
 		{ return Command.CONTINUE; }
 		OFPacketIn pktIn = (OFPacketIn)msg;
 
-		// Handle the packet
-		Ethernet ethPkt = new Ethernet();
-		ethPkt.deserialize(pktIn.getPacketData(), 0,
-				pktIn.getPacketData().length);
+		// Handle the packet; only its headers are needed
+		Ethernet ethPkt = PacketIns.parseHeaders(pktIn, 
+				PacketIns.L4_SNAP_LENGTH);
 
 		/*********************************************************************/
 		/* TODO: Send an ARP reply for ARP requests for virtual IPs; for TCP */
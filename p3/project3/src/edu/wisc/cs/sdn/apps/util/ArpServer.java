@@ -130,8 +130,7 @@ public class ArpServer implements IFloodlightModule, IOFMessageListener
 		OFPacketIn pktIn = (OFPacketIn)msg;
 		
 		// We only care about ARP packets
-		Ethernet eth = new Ethernet();
-		eth.deserialize(pktIn.getPacketData(), 0, pktIn.getPacketData().length);
+		Ethernet eth = PacketIns.parseHeaders(pktIn, PacketIns.L3_SNAP_LENGTH);
 		if (eth.getEtherType() != Ethernet.TYPE_ARP)
 		{ return Command.CONTINUE; }
 		ARP arp = (ARP)eth.getPayload();
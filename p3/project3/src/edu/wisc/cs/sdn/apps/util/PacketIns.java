@@ -0,0 +1,50 @@
+package edu.wisc.cs.sdn.apps.util;
+
+import org.openflow.protocol.OFPacketIn;
+
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * Parses the frames carried by packet-in messages, only as far as the
+ * headers a module needs to classify them.
+ */
+public class PacketIns 
+{
+	/** Length of an Ethernet header with a VLAN tag */
+	private static final int VLAN_ETHERNET_HEADER_LENGTH = 18;
+	
+	/** Length of an IPv4 header with the largest options; longer than an 
+	 * ARP packet */
+	private static final int MAX_IPV4_HEADER_LENGTH = 60;
+	
+	/** Length of a TCP header with the largest options */
+	private static final int MAX_TCP_HEADER_LENGTH = 60;
+	
+	/** Bytes that hold a tagged Ethernet header, plus an ARP packet or an
+	 * IPv4 header with the largest options */
+	public static final int L3_SNAP_LENGTH = 
+			VLAN_ETHERNET_HEADER_LENGTH + MAX_IPV4_HEADER_LENGTH;
+	
+	/** Bytes that hold every header down to a TCP header with the largest
+	 * options */
+	public static final int L4_SNAP_LENGTH = 
+			L3_SNAP_LENGTH + MAX_TCP_HEADER_LENGTH;
+	
+	/**
+	 * Parse the frame in a packet-in, stopping at a snap length. Only the 
+	 * leading bytes of a large frame are parsed, so its payload is not 
+	 * copied into a Data packet that would never be read.
+	 * @param pktIn the packet-in message
+	 * @param snapLength number of leading bytes of the frame to parse, e.g., 
+	 *        L3_SNAP_LENGTH or L4_SNAP_LENGTH
+	 * @return the parsed headers; the innermost payload is truncated
+	 */
+	public static Ethernet parseHeaders(OFPacketIn pktIn, int snapLength)
+	{
+		byte[] packetData = pktIn.getPacketData();
+		Ethernet ethPkt = new Ethernet();
+		ethPkt.deserialize(packetData, 0, 
+				Math.min(packetData.length, snapLength));
+		return ethPkt;
+	}
+}